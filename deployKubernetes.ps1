@@ -42,6 +42,15 @@ $resourceGroupOutput = az aks create --resource-group $resourceGroupName --name
 Write-Host "Getting Kubernetes credentials..."
 az aks get-credentials --resource-group scc2324-cluster-$studentNumber --name $clusterName
 
+# Kept across redeploys, so the sessions that were issued stay valid
+kubectl get secret sccapp-session-59243 *> $null
+if ($LASTEXITCODE -ne 0) {
+    Write-Host "Creating session signing key..."
+    $key = New-Object byte[] 32
+    [System.Security.Cryptography.RandomNumberGenerator]::Create().GetBytes($key)
+    kubectl create secret generic sccapp-session-59243 --from-literal=secret=$([Convert]::ToBase64String($key))
+}
+
 Write-Host "Applying yaml in docker directory..."
 kubectl apply -f .\docker\sccapp.yaml
 
@@ -1,27 +1,144 @@
 package scc.cache;
 
 import com.fasterxml.jackson.core.JsonProcessingException;
-import com.fasterxml.jackson.databind.ObjectMapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import redis.clients.jedis.Jedis;
 import redis.clients.jedis.JedisPool;
 import redis.clients.jedis.JedisPoolConfig;
+import redis.clients.jedis.Pipeline;
+import redis.clients.jedis.Response;
+import redis.clients.jedis.Transaction;
+import redis.clients.jedis.params.SetParams;
 import scc.srv.utils.HasId;
+import scc.srv.utils.IoExecutor;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
 
 public class Cache {
-    private static final long CACHE_EXPIRE_TIME = 300; // 5 minutes
+
+    private static final Logger log = LoggerFactory.getLogger(Cache.class);
+
+    // List pages are fresh for LIST_FRESH_TIME, give or take LIST_TTL_JITTER of it so that pages cached
+    // together do not expire together, and may then be served stale for LIST_STALE_TIME while refreshed
+    private static final long LIST_FRESH_TIME = 300; // 5 minutes
+    private static final double LIST_TTL_JITTER = 0.2;
+    private static final long LIST_STALE_TIME = 300; // 5 minutes
+    private static final long LIST_MAX_LIFETIME = (long) (LIST_FRESH_TIME * (1 + LIST_TTL_JITTER)) + LIST_STALE_TIME;
+    private static final long LIST_REFRESH_LOCK_TIME = 10 * 1000; // 10 seconds
+    private static final String FRESH_UNTIL_SUFFIX = ":fresh";
+    private static final String REFRESH_SUFFIX = ":refresh";
+    private static final String GENERATION_SUFFIX = ":gen";
+    private static final long GENERATION_EXPIRE_TIME = 24 * 3600; // 1 day, far longer than any load
     private static final String REDIS_HOSTNAME = System.getenv("REDIS");
     private static final int REDIS_PORT = Integer.parseInt(System.getenv("REDIS_PORT"));
 
     private static final boolean CACHE_ON = true;
 
-    private static JedisPool instance;
+    private static final long NEAR_CACHE_MAX_SIZE = 16 * 1024 * 1024; // bytes of cached values
+    private static final long NEAR_CACHE_EXPIRE_TIME = 30 * 1000; // 30 seconds
+    private static final String INVALIDATION_CHANNEL = "cache:invalidate";
+    private static final String NODE_ID = UUID.randomUUID().toString();
+
+    private static final int COMPRESSION_THRESHOLD = 1024; // bytes
+    private static final String CACHE_FORMAT = System.getenv("CACHE_FORMAT");
+
+    private static final CacheCodec codec = new CacheCodec(
+            CACHE_FORMAT == null ? CacheCodec.Format.SMILE : CacheCodec.Format.valueOf(CACHE_FORMAT.toUpperCase()),
+            COMPRESSION_THRESHOLD);
+
+    private static final NearCache nearCache = new NearCache(NEAR_CACHE_MAX_SIZE, NEAR_CACHE_EXPIRE_TIME);
+
+    private static final List<Consumer<String>> invalidationHandlers = new CopyOnWriteArrayList<>();
+    private static final List<Runnable> resubscribeHandlers = new CopyOnWriteArrayList<>();
+
+    private static final SingleFlight loads = new SingleFlight();
+
+    // Drops each tag and returns its pages, which the caller deletes, and bumps the generation of the tag
+    // so that pages loaded before it are not cached after it. KEYS are the tags followed by their
+    // generations, ARGV[1] is the time the generations expire in. Like every script here, it only touches
+    // the keys declared in KEYS: the page keys are only read as members of the tags.
+    private static final String INVALIDATE_TAGS_SCRIPT = """
+            local n = #KEYS / 2
+            local pages = {}
+            for t = 1, n do
+                for _, page in ipairs(redis.call('zrange', KEYS[t], 0, -1)) do
+                    pages[#pages + 1] = page
+                end
+                redis.call('del', KEYS[t])
+                redis.call('incr', KEYS[n + t])
+                redis.call('expire', KEYS[n + t], ARGV[1])
+            end
+            return pages
+            """;
+
+    // Pages deleted by a single UNLINK after their tags are invalidated
+    private static final int UNLINK_CHUNK = 1000;
+
+    // Caches a page and adds it to its tags, unless a tag was invalidated since the page was loaded.
+    // KEYS are the page, its freshness, the generations of its tags and the tags. ARGV are the time the
+    // page expires in, the time it is fresh until, the time it expires at, the current time, the time the
+    // tags expire in, the generations read before the page was loaded, and the elements of the page.
+    // The page key is added to the tags as a member, it is not a key the script reads.
+    private static final String PUT_PAGE_SCRIPT = """
+            local n = (#KEYS - 2) / 2
+            for t = 1, n do
+                if (redis.call('get', KEYS[2 + t]) or '0') ~= ARGV[5 + t] then
+                    return 0
+                end
+            end
+            redis.call('del', KEYS[1])
+            for i = 6 + n, #ARGV, 1000 do
+                redis.call('rpush', KEYS[1], unpack(ARGV, i, math.min(i + 999, #ARGV)))
+            end
+            redis.call('expire', KEYS[1], ARGV[1])
+            redis.call('set', KEYS[2], ARGV[2], 'EX', ARGV[1])
+            for t = 1, n do
+                local tag = KEYS[2 + n + t]
+                redis.call('zadd', tag, ARGV[3], KEYS[1])
+                redis.call('zremrangebyscore', tag, '-inf', ARGV[4])
+                redis.call('expire', tag, ARGV[5])
+            end
+            return 1
+            """;
 
-    public synchronized static JedisPool getCachePool() {
+    private static final String RENEW_LEASE_SCRIPT =
+            "if redis.call('get', KEYS[1]) == ARGV[1] then return redis.call('pexpire', KEYS[1], ARGV[2]) end return 0";
+    private static final String RELEASE_LEASE_SCRIPT =
+            "if redis.call('get', KEYS[1]) == ARGV[1] then return redis.call('del', KEYS[1]) end return 0";
+
+    private static volatile JedisPool instance;
+
+    private static final Lock poolLock = new ReentrantLock();
+
+    public static JedisPool getCachePool() {
         if (instance != null)
             return instance;
+        poolLock.lock();
+        try {
+            if (instance == null)
+                instance = createCachePool();
+            return instance;
+        } finally {
+            poolLock.unlock();
+        }
+    }
+
+    private static JedisPool createCachePool() {
         final JedisPoolConfig poolConfig = new JedisPoolConfig();
         poolConfig.setMaxTotal(128);
         poolConfig.setMaxIdle(128);
@@ -31,99 +148,465 @@ public class Cache {
         poolConfig.setTestWhileIdle(true);
         poolConfig.setNumTestsPerEvictionRun(3);
         poolConfig.setBlockWhenExhausted(true);
-        instance = new JedisPool(poolConfig, REDIS_HOSTNAME, REDIS_PORT, 1000, false);
-        return instance;
+        var pool = new JedisPool(poolConfig, REDIS_HOSTNAME, REDIS_PORT, 1000, false);
+        new InvalidationListener(REDIS_HOSTNAME, REDIS_PORT, INVALIDATION_CHANNEL, NODE_ID, nearCache,
+                invalidationHandlers, resubscribeHandlers).start();
+        return pool;
     }
 
-    private static final ObjectMapper mapper = new ObjectMapper();
-
     public Cache() {
     }
 
-    public static <T extends HasId> void putCookieInCache(T obj, String prefix) throws JsonProcessingException {
+    /**
+     * Adds a member to a set whose members expire at the given time. Expired members are dropped on every add.
+     */
+    public static void addToExpiringSet(String key, String member, long expiresAt) {
         try (Jedis jedis = Cache.getCachePool().getResource()) {
-            jedis.set(prefix + obj.getId(), mapper.writeValueAsString(obj));
+            Pipeline pipeline = jedis.pipelined();
+            pipeline.zadd(key, expiresAt, member);
+            pipeline.zremrangeByScore(key, Double.NEGATIVE_INFINITY, System.currentTimeMillis());
+            pipeline.sync();
         }
     }
 
-    public static String getCookieFromCache(String prefix, String key) {
+    /**
+     * Returns the members of an expiring set that have not expired yet, with their expiry times
+     */
+    public static Map<String, Long> getExpiringSet(String key) {
+        Map<String, Long> members = new HashMap<>();
         try (Jedis jedis = Cache.getCachePool().getResource()) {
-            return jedis.get(prefix + key);
-        } catch (Exception e) {
-            return null;
+            for (var member : jedis.zrangeByScoreWithScores(key, System.currentTimeMillis(), Double.POSITIVE_INFINITY))
+                members.put(member.getElement(), (long) member.getScore());
         }
+        return members;
+    }
+
+    /**
+     * Returns the expiry time of a member of an expiring set, or null if it is not there or has expired
+     */
+    public static Long getExpiringSetMember(String key, String member) {
+        try (Jedis jedis = Cache.getCachePool().getResource()) {
+            var expiresAt = jedis.zscore(key, member);
+            return expiresAt == null || expiresAt < System.currentTimeMillis() ? null : expiresAt.longValue();
+        }
+    }
+
+    public static void publish(String channel, String message) {
+        try (Jedis jedis = Cache.getCachePool().getResource()) {
+            jedis.publish(channel, message);
+        }
+    }
+
+    /**
+     * Listens to a channel in the background. onSubscribe runs every time the subscription is
+     * (re)established, and onDisconnect every time it is lost, since messages published while
+     * disconnected are lost.
+     */
+    public static void subscribe(String channel, Runnable onSubscribe, Runnable onDisconnect,
+                                 Consumer<String> onMessage) {
+        new ChannelListener(REDIS_HOSTNAME, REDIS_PORT, channel, onSubscribe, onDisconnect, onMessage).start();
+    }
+
+    /**
+     * Tells the other replicas that the given keys changed, for state they keep in memory outside the
+     * near cache. Each of them passes the keys to the handlers registered with onInvalidation.
+     */
+    public static void publishInvalidation(String... keys) {
+        if (CACHE_ON && keys.length > 0)
+            publish(INVALIDATION_CHANNEL, InvalidationListener.message(NODE_ID, keys));
+    }
+
+    /**
+     * Runs the handler with every key that another replica invalidates, and onResubscribe every time the
+     * invalidation channel is (re)subscribed, since the messages published while disconnected are lost
+     */
+    public static void onInvalidation(Consumer<String> handler, Runnable onResubscribe) {
+        invalidationHandlers.add(handler);
+        resubscribeHandlers.add(onResubscribe);
+        getCachePool();
     }
 
     public static <T extends HasId> void putInCache(T obj, String prefix) throws JsonProcessingException {
-        if (CACHE_ON)
+        if (CACHE_ON) {
+            String key = prefix + obj.getId();
+            byte[] value = codec.encode(obj);
             try (Jedis jedis = Cache.getCachePool().getResource()) {
-                jedis.set(prefix + obj.getId(), mapper.writeValueAsString(obj));
+                Pipeline pipeline = jedis.pipelined();
+                pipeline.set(bytes(key), value);
+                pipeline.publish(INVALIDATION_CHANNEL, InvalidationListener.message(NODE_ID, key));
+                pipeline.sync();
             }
+            nearCache.put(key, value);
+        }
     }
 
-    public static String getFromCache(String prefix, String key) {
-        if (CACHE_ON)
-            try (Jedis jedis = Cache.getCachePool().getResource()) {
-                return jedis.get(prefix + key);
+    public static <T> T getFromCache(String prefix, String key, Class<T> type) {
+        if (CACHE_ON) {
+            byte[] value = nearCache.get(prefix, key);
+            if (value == null) {
+                // An invalidation that arrives between the GET and the put may be for a newer value
+                long version = nearCache.version();
+                try (Jedis jedis = Cache.getCachePool().getResource()) {
+                    value = jedis.get(bytes(prefix + key));
+                }
+                if (value == null)
+                    return null;
+                nearCache.putIfUnchanged(prefix + key, value, version);
             }
+            return decode(value, type);
+        }
         return null;
     }
 
+    /**
+     * Checks if a key is cached without reading its value
+     */
+    public static boolean isCached(String prefix, String id) {
+        if (CACHE_ON) {
+            if (nearCache.get(prefix, id) != null)
+                return true;
+            try (Jedis jedis = Cache.getCachePool().getResource()) {
+                return jedis.exists(prefix + id);
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Checks which of several (prefix, id) keys are cached, in a single round trip for the ones that are
+     * not in the near cache
+     */
+    public static boolean[] areCached(List<Map.Entry<String, String>> keys) {
+        boolean[] cached = new boolean[keys.size()];
+        if (CACHE_ON) {
+            List<Integer> remote = new ArrayList<>(keys.size());
+            for (int i = 0; i < keys.size(); i++) {
+                var key = keys.get(i);
+                if (nearCache.get(key.getKey(), key.getValue()) != null)
+                    cached[i] = true;
+                else
+                    remote.add(i);
+            }
+            if (remote.isEmpty())
+                return cached;
+
+            List<Response<Boolean>> replies = new ArrayList<>(remote.size());
+            try (Jedis jedis = Cache.getCachePool().getResource()) {
+                Pipeline pipeline = jedis.pipelined();
+                for (int i : remote)
+                    replies.add(pipeline.exists(keys.get(i).getKey() + keys.get(i).getValue()));
+                pipeline.sync();
+            }
+            for (int i = 0; i < remote.size(); i++)
+                cached[remote.get(i)] = replies.get(i).get();
+        }
+        return cached;
+    }
+
     public static void deleteFromCache(String prefix, String id) {
-        if (CACHE_ON)
+        if (CACHE_ON) {
+            String key = prefix + id;
             try (Jedis jedis = Cache.getCachePool().getResource()) {
-                jedis.del(prefix + id);
+                Pipeline pipeline = jedis.pipelined();
+                pipeline.del(key);
+                pipeline.publish(INVALIDATION_CHANNEL, InvalidationListener.message(NODE_ID, key));
+                pipeline.sync();
             }
+            nearCache.invalidate(key);
+        }
     }
 
     public static void deleteAllFromCache(String prefix, List<String> ids) {
-        if (CACHE_ON)
+        if (CACHE_ON && !ids.isEmpty()) {
+            String[] keys = withPrefix(prefix, ids);
             try (Jedis jedis = Cache.getCachePool().getResource()) {
-                for (String id : ids)
-                    jedis.del(prefix + id);
+                Pipeline pipeline = jedis.pipelined();
+                pipeline.unlink(keys);
+                pipeline.publish(INVALIDATION_CHANNEL, InvalidationListener.message(NODE_ID, keys));
+                pipeline.sync();
             }
+            for (String key : keys)
+                nearCache.invalidate(key);
+        }
     }
 
-    public static List<String> getListFromCache(String key) {
-        if (CACHE_ON)
+    /**
+     * Gets a cached list. A list with some element that can not be read is treated as a miss.
+     */
+    public static <T> List<T> getListFromCache(String key, Class<T> type) {
+        if (CACHE_ON) {
+            List<byte[]> values;
             try (Jedis jedis = Cache.getCachePool().getResource()) {
-                return jedis.lrange(key, 0, -1);
+                values = jedis.lrange(bytes(key), 0, -1);
             }
+            return decodeAll(values, type);
+        }
         return new ArrayList<>();
     }
 
-    public static <T extends HasId> void putListInCache(List<T> list, String key) throws JsonProcessingException {
-        if (CACHE_ON)
-            try (Jedis jedis = Cache.getCachePool().getResource()) {
-                for (T obj : list) {
-                    jedis.lpush(key, mapper.writeValueAsString(obj));
-                }
-                jedis.expire(key, CACHE_EXPIRE_TIME);
+    /**
+     * Gets a cached page of a list, loading it on a miss. A page past its freshness is still returned, and
+     * a single refresh among all replicas reloads it in the background, so an expiring page never makes
+     * the requests wait for the database.
+     */
+    public static <T extends HasId> List<T> getList(String key, Class<T> type, Supplier<List<T>> loader,
+                                                    String... tags) throws JsonProcessingException {
+        if (!CACHE_ON)
+            return loader.get();
+
+        Response<List<byte[]>> values;
+        Response<String> freshUntil;
+        try (Jedis jedis = Cache.getCachePool().getResource()) {
+            Pipeline pipeline = jedis.pipelined();
+            values = pipeline.lrange(bytes(key), 0, -1);
+            freshUntil = pipeline.get(key + FRESH_UNTIL_SUFFIX);
+            pipeline.sync();
+        }
+
+        var cached = decodeAll(values.get(), type);
+        if (cached.isEmpty()) {
+            try {
+                return loadOnce(key, () -> {
+                    try {
+                        return loadList(key, loader, tags);
+                    } catch (JsonProcessingException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                });
+            } catch (UncheckedIOException e) {
+                throw (JsonProcessingException) e.getCause();
             }
+        }
+
+        if (freshUntil.get() == null || Long.parseLong(freshUntil.get()) <= System.currentTimeMillis())
+            refresh(key, loader, tags);
+        return cached;
     }
 
-    public static <T> void addToListInCache(T obj, String key) throws JsonProcessingException {
-        if (CACHE_ON)
+    /**
+     * Loads a page of a list and caches it, replacing it if it was cached. The page is added to each of the
+     * given tags, so that it is dropped when any of them is invalidated. The generations of the tags are
+     * read before loading, and the page is not cached if any of them was invalidated meanwhile, since it
+     * may have been read from the database before the change that invalidated it.
+     */
+    public static <T extends HasId> List<T> loadList(String key, Supplier<List<T>> loader, String... tags)
+            throws JsonProcessingException {
+        if (!CACHE_ON)
+            return loader.get();
+
+        var generations = generationsOf(tags);
+        var list = loader.get();
+        putListInCache(list, key, generations, tags);
+        return list;
+    }
+
+    private static <T extends HasId> void putListInCache(List<T> list, String key, List<String> generations,
+                                                         String... tags) throws JsonProcessingException {
+        if (list.isEmpty())
+            return;
+
+        long now = System.currentTimeMillis();
+        long freshFor = jittered(LIST_FRESH_TIME);
+        long expireIn = freshFor + LIST_STALE_TIME;
+
+        List<byte[]> keys = new ArrayList<>(2 + 2 * tags.length);
+        keys.add(bytes(key));
+        keys.add(bytes(key + FRESH_UNTIL_SUFFIX));
+        for (String tag : tags)
+            keys.add(bytes(tag + GENERATION_SUFFIX));
+        for (String tag : tags)
+            keys.add(bytes(tag));
+
+        List<byte[]> args = new ArrayList<>(5 + generations.size() + list.size());
+        args.add(bytes(Long.toString(expireIn)));
+        args.add(bytes(Long.toString(now + freshFor * 1000)));
+        args.add(bytes(Long.toString(now + expireIn * 1000)));
+        args.add(bytes(Long.toString(now)));
+        args.add(bytes(Long.toString(LIST_MAX_LIFETIME)));
+        for (String generation : generations)
+            args.add(bytes(generation));
+        for (T element : list)
+            args.add(codec.encode(element));
+
+        try (Jedis jedis = Cache.getCachePool().getResource()) {
+            jedis.eval(bytes(PUT_PAGE_SCRIPT), keys, args);
+        }
+    }
+
+    /**
+     * The current generation of each tag, "0" for a tag that was never invalidated
+     */
+    private static List<String> generationsOf(String... tags) {
+        if (tags.length == 0)
+            return List.of();
+
+        String[] keys = new String[tags.length];
+        for (int i = 0; i < tags.length; i++)
+            keys[i] = tags[i] + GENERATION_SUFFIX;
+
+        List<String> generations;
+        try (Jedis jedis = Cache.getCachePool().getResource()) {
+            generations = jedis.mget(keys);
+        }
+        var result = new ArrayList<String>(generations.size());
+        for (String generation : generations)
+            result.add(generation == null ? "0" : generation);
+        return result;
+    }
+
+    /**
+     * Reloads a stale page in the background, unless another request or replica is already doing it.
+     * A failed refresh is logged and releases the lease, so the next request for the page retries it.
+     */
+    private static <T extends HasId> void refresh(String key, Supplier<List<T>> loader, String... tags) {
+        String lock = key + REFRESH_SUFFIX;
+        if (!acquireLease(lock, NODE_ID, LIST_REFRESH_LOCK_TIME))
+            return;
+        IoExecutor.background(() -> {
+            try {
+                var list = loadList(key, loader, tags);
+                if (list.isEmpty())
+                    delete(key);
+            } catch (Exception e) {
+                log.warn("Could not refresh the list page {}, it is served stale until it expires", key, e);
+            } finally {
+                releaseLease(lock, NODE_ID);
+            }
+        });
+    }
+
+    /**
+     * A number of seconds randomly spread around the given one
+     */
+    private static long jittered(long seconds) {
+        double jitter = ThreadLocalRandom.current().nextDouble(-LIST_TTL_JITTER, LIST_TTL_JITTER);
+        return Math.max(1, Math.round(seconds * (1 + jitter)));
+    }
+
+    /**
+     * Drops every cached page of the given tags. Returns the number of pages that were tagged.
+     * <p>
+     * A tag is a sorted set of page keys, scored by the time they expire. Expired pages are pruned on
+     * every add, and the tag itself expires once its last page may have. Each tag also has a generation,
+     * bumped here, so that a page being loaded while its tag is invalidated is not cached afterwards.
+     * The tags are dropped and their generations bumped at once, and their pages are then deleted in
+     * chunks of UNLINK_CHUNK.
+     */
+    @SuppressWarnings("unchecked")
+    public static long invalidateTag(String... tags) {
+        if (CACHE_ON && tags.length > 0) {
+            String[] keys = new String[2 * tags.length];
+            for (int i = 0; i < tags.length; i++) {
+                keys[i] = tags[i];
+                keys[tags.length + i] = tags[i] + GENERATION_SUFFIX;
+            }
             try (Jedis jedis = Cache.getCachePool().getResource()) {
-                jedis.lpush(key, mapper.writeValueAsString(obj));
-                jedis.expire(key, CACHE_EXPIRE_TIME);
+                var tagged = (List<String>) jedis.eval(INVALIDATE_TAGS_SCRIPT, List.of(keys),
+                        List.of(Long.toString(GENERATION_EXPIRE_TIME)));
+                // A page may be in several of the tags
+                var pages = new ArrayList<>(new LinkedHashSet<>(tagged));
+                if (!pages.isEmpty()) {
+                    Pipeline pipeline = jedis.pipelined();
+                    for (int i = 0; i < pages.size(); i += UNLINK_CHUNK) {
+                        var chunk = pages.subList(i, Math.min(i + UNLINK_CHUNK, pages.size()));
+                        pipeline.unlink(chunk.toArray(new String[0]));
+                    }
+                    pipeline.sync();
+                }
+                return pages.size();
             }
+        }
+        return 0;
     }
 
-    public static <T> void removeFromListInCache(T obj, String key) throws JsonProcessingException {
+    /**
+     * Replaces a whole list at once, keeping the order of the given elements. A non positive expiry
+     * keeps the list until it is replaced again.
+     */
+    public static <T> void replaceListInCache(List<T> list, String key, long expireSeconds) throws JsonProcessingException {
         if (CACHE_ON) {
+            byte[][] values = new byte[list.size()][];
+            for (int i = 0; i < values.length; i++)
+                values[i] = codec.encode(list.get(i));
+
             try (Jedis jedis = Cache.getCachePool().getResource()) {
-                String valueToRemove = mapper.writeValueAsString(obj);
-                jedis.lrem(key, 0, valueToRemove);
+                Transaction transaction = jedis.multi();
+                transaction.del(key);
+                if (values.length > 0) {
+                    transaction.rpush(bytes(key), values);
+                    if (expireSeconds > 0)
+                        transaction.expire(key, expireSeconds);
+                }
+                transaction.exec();
             }
         }
     }
 
-    public static void removeListInCache(String key) {
-        if (CACHE_ON)
-            try (Jedis jedis = Cache.getCachePool().getResource()) {
-                jedis.ltrim(key, 0, 0);
+    public static String getValue(String key) {
+        try (Jedis jedis = Cache.getCachePool().getResource()) {
+            return jedis.get(key);
+        }
+    }
+
+    public static void putValue(String key, String value) {
+        try (Jedis jedis = Cache.getCachePool().getResource()) {
+            jedis.set(key, value);
+        }
+    }
+
+    public static Map<String, String> getFields(String key) {
+        try (Jedis jedis = Cache.getCachePool().getResource()) {
+            return jedis.hgetAll(key);
+        }
+    }
+
+    /**
+     * Replaces the fields of a hash, which expires after the given time
+     */
+    public static void putFields(String key, Map<String, String> fields, long expireSeconds) {
+        try (Jedis jedis = Cache.getCachePool().getResource()) {
+            Transaction transaction = jedis.multi();
+            transaction.del(key);
+            if (!fields.isEmpty()) {
+                transaction.hset(key, fields);
+                transaction.expire(key, expireSeconds);
             }
+            transaction.exec();
+        }
+    }
+
+    public static void delete(String key) {
+        try (Jedis jedis = Cache.getCachePool().getResource()) {
+            jedis.unlink(key);
+        }
+    }
+
+    /**
+     * Takes a lease on the key for the given owner, if nobody else holds it
+     */
+    public static boolean acquireLease(String key, String owner, long millis) {
+        try (Jedis jedis = Cache.getCachePool().getResource()) {
+            return "OK".equals(jedis.set(key, owner, SetParams.setParams().nx().px(millis)));
+        }
+    }
+
+    /**
+     * Extends a lease, if it is still held by the given owner
+     */
+    public static boolean renewLease(String key, String owner, long millis) {
+        try (Jedis jedis = Cache.getCachePool().getResource()) {
+            Object renewed = jedis.eval(RENEW_LEASE_SCRIPT, List.of(key), List.of(owner, Long.toString(millis)));
+            return Long.valueOf(1).equals(renewed);
+        }
+    }
+
+    /**
+     * Gives up a lease, if it is still held by the given owner
+     */
+    public static void releaseLease(String key, String owner) {
+        try (Jedis jedis = Cache.getCachePool().getResource()) {
+            jedis.eval(RELEASE_LEASE_SCRIPT, List.of(key), List.of(owner));
+        }
     }
 
     public static boolean hasKey(String key) {
@@ -136,5 +619,48 @@ public class Cache {
         return false;
     }
 
+    /**
+     * Loads the value of a key that missed the cache. Concurrent misses of the same key share a single load.
+     */
+    public static <T> T loadOnce(String key, Supplier<T> loader) {
+        return loads.load(key, loader);
+    }
+
+    /**
+     * Returns the near cache hit and miss counters of each key prefix
+     */
+    public static Map<String, NearCache.Stats> getNearCacheStats() {
+        return nearCache.getStats();
+    }
+
+    private static <T> T decode(byte[] value, Class<T> type) {
+        try {
+            return codec.decode(value, type);
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    private static <T> List<T> decodeAll(List<byte[]> values, Class<T> type) {
+        List<T> result = new ArrayList<>(values.size());
+        for (byte[] value : values) {
+            T obj = decode(value, type);
+            if (obj == null)
+                return new ArrayList<>();
+            result.add(obj);
+        }
+        return result;
+    }
+
+    private static byte[] bytes(String key) {
+        return key.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static String[] withPrefix(String prefix, List<String> ids) {
+        String[] keys = new String[ids.size()];
+        for (int i = 0; i < keys.length; i++)
+            keys[i] = prefix + ids.get(i);
+        return keys;
+    }
 
 }
@@ -0,0 +1,90 @@
+package scc.cache;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.Deflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Converts the objects stored in the cache to and from bytes.
+ * <p>
+ * Values are written in the configured format. Binary values start with a format byte, which lets every
+ * replica read values written in any format, including the plain JSON written by the previous versions
+ * and by the Azure functions.
+ */
+public class CacheCodec {
+
+    public enum Format {
+        JSON, SMILE
+    }
+
+    private static final byte SMILE = 1;
+    private static final byte DEFLATED_SMILE = 2;
+
+    private static final ObjectMapper json = new ObjectMapper();
+    private static final ObjectMapper smile = new ObjectMapper(new SmileFactory());
+
+    private final Format format;
+    private final int compressionThreshold;
+
+    /**
+     * @param format               format of the written values
+     * @param compressionThreshold size in bytes above which binary values are compressed
+     */
+    public CacheCodec(Format format, int compressionThreshold) {
+        this.format = format;
+        this.compressionThreshold = compressionThreshold;
+    }
+
+    public byte[] encode(Object value) throws JsonProcessingException {
+        if (format == Format.JSON)
+            return json.writeValueAsBytes(value);
+
+        byte[] data = smile.writeValueAsBytes(value);
+        if (data.length > compressionThreshold)
+            return withFormat(DEFLATED_SMILE, deflate(data));
+        return withFormat(SMILE, data);
+    }
+
+    public <T> T decode(byte[] data, Class<T> type) throws IOException {
+        if (data.length == 0)
+            throw new IOException("Empty cached value");
+        return switch (data[0]) {
+            case SMILE -> smile.readValue(data, 1, data.length - 1, type);
+            case DEFLATED_SMILE -> {
+                try (InputStream in = new InflaterInputStream(new ByteArrayInputStream(data, 1, data.length - 1))) {
+                    yield smile.readValue(in, type);
+                }
+            }
+            default -> json.readValue(data, type);
+        };
+    }
+
+    private static byte[] withFormat(byte format, byte[] data) {
+        byte[] result = new byte[data.length + 1];
+        result[0] = format;
+        System.arraycopy(data, 0, result, 1, data.length);
+        return result;
+    }
+
+    private static byte[] deflate(byte[] data) {
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        try {
+            deflater.setInput(data);
+            deflater.finish();
+            ByteArrayOutputStream out = new ByteArrayOutputStream(data.length / 2);
+            byte[] buffer = new byte[1024];
+            while (!deflater.finished())
+                out.write(buffer, 0, deflater.deflate(buffer));
+            return out.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+}
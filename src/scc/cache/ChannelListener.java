@@ -0,0 +1,72 @@
+package scc.cache;
+
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPubSub;
+
+import java.util.function.Consumer;
+
+/**
+ * Subscribes to a Redis channel in a daemon thread, reconnecting when the connection is lost.
+ * <p>
+ * Messages published while disconnected are lost, so the owner is told every time the subscription
+ * is lost and (re)established and can resynchronise its state then.
+ */
+class ChannelListener extends JedisPubSub implements Runnable {
+
+    private static final long RECONNECT_DELAY = 1000;
+
+    private final String host;
+    private final int port;
+    private final String channel;
+    private final Runnable onSubscribe;
+    private final Runnable onDisconnect;
+    private final Consumer<String> onMessage;
+
+    ChannelListener(String host, int port, String channel, Runnable onSubscribe, Consumer<String> onMessage) {
+        this(host, port, channel, onSubscribe, () -> {
+        }, onMessage);
+    }
+
+    ChannelListener(String host, int port, String channel, Runnable onSubscribe, Runnable onDisconnect,
+                    Consumer<String> onMessage) {
+        this.host = host;
+        this.port = port;
+        this.channel = channel;
+        this.onSubscribe = onSubscribe;
+        this.onDisconnect = onDisconnect;
+        this.onMessage = onMessage;
+    }
+
+    void start() {
+        Thread thread = new Thread(this, "subscriber-" + channel);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    @Override
+    public void run() {
+        while (true) {
+            try (Jedis jedis = new Jedis(host, port)) {
+                jedis.subscribe(this, channel);
+            } catch (Exception e) {
+                // Reconnect below
+            }
+            onDisconnect.run();
+            try {
+                Thread.sleep(RECONNECT_DELAY);
+            } catch (InterruptedException e) {
+                return;
+            }
+        }
+    }
+
+    @Override
+    public void onSubscribe(String channel, int subscribedChannels) {
+        onSubscribe.run();
+    }
+
+    @Override
+    public void onMessage(String channel, String message) {
+        onMessage.accept(message);
+    }
+}
@@ -0,0 +1,55 @@
+package scc.cache;
+
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Listens to the invalidation messages published by the other replicas and drops the keys they changed
+ * from the local near cache, passing them on to the handlers of state kept outside of it.
+ * <p>
+ * A message is the id of the node that published it followed by the changed keys, one per line.
+ * Messages published while disconnected are lost, so the near cache is cleared and the resubscribe
+ * handlers are run every time the subscription is (re)established.
+ */
+class InvalidationListener {
+
+    private final String nodeId;
+    private final NearCache nearCache;
+    private final List<Consumer<String>> handlers;
+    private final List<Runnable> resubscribeHandlers;
+    private final ChannelListener listener;
+
+    InvalidationListener(String host, int port, String channel, String nodeId, NearCache nearCache,
+                         List<Consumer<String>> handlers, List<Runnable> resubscribeHandlers) {
+        this.nodeId = nodeId;
+        this.nearCache = nearCache;
+        this.handlers = handlers;
+        this.resubscribeHandlers = resubscribeHandlers;
+        this.listener = new ChannelListener(host, port, channel, this::onSubscribe, this::onMessage);
+    }
+
+    static String message(String nodeId, String... keys) {
+        return nodeId + "\n" + String.join("\n", keys);
+    }
+
+    void start() {
+        listener.start();
+    }
+
+    private void onSubscribe() {
+        nearCache.clear();
+        for (var handler : resubscribeHandlers)
+            handler.run();
+    }
+
+    private void onMessage(String message) {
+        var lines = message.split("\n");
+        if (lines[0].equals(nodeId))
+            return;
+        for (int i = 1; i < lines.length; i++) {
+            nearCache.invalidate(lines[i]);
+            for (var handler : handlers)
+                handler.accept(lines[i]);
+        }
+    }
+}
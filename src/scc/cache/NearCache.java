@@ -0,0 +1,169 @@
+package scc.cache;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * In-process cache kept in front of Redis.
+ * <p>
+ * Entries are evicted in LRU order once the total size of the cached values goes over the limit, and
+ * expire after a short TTL so that a lost invalidation message can only leave an entry stale for a while.
+ * Hits and misses are counted per key prefix.
+ * <p>
+ * Every invalidation bumps a version, so that a value read from Redis before some invalidation is not
+ * cached after it (see putIfUnchanged).
+ */
+public class NearCache {
+
+    private final long maxSize;
+    private final long ttlMillis;
+
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(256, 0.75f, true);
+    private long size;
+    private long version;
+
+    private final Map<String, Stats> stats = new ConcurrentHashMap<>();
+
+    private final Lock lock = new ReentrantLock();
+
+    public NearCache(long maxSize, long ttlMillis) {
+        this.maxSize = maxSize;
+        this.ttlMillis = ttlMillis;
+    }
+
+    public byte[] get(String prefix, String key) {
+        byte[] value = lookup(prefix + key);
+        var prefixStats = stats.computeIfAbsent(prefix, p -> new Stats());
+        if (value != null)
+            prefixStats.hits.increment();
+        else
+            prefixStats.misses.increment();
+        return value;
+    }
+
+    public void put(String key, byte[] value) {
+        lock.lock();
+        try {
+            remove(key);
+            entries.put(key, new Entry(value, System.currentTimeMillis() + ttlMillis));
+            size += sizeOf(key, value);
+
+            Iterator<Map.Entry<String, Entry>> it = entries.entrySet().iterator();
+            while (size > maxSize && it.hasNext()) {
+                var eldest = it.next();
+                size -= sizeOf(eldest.getKey(), eldest.getValue().value);
+                it.remove();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * The number of invalidations so far, to be read before the value is read from Redis
+     */
+    public long version() {
+        lock.lock();
+        try {
+            return version;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Caches a value read from Redis, unless some key was invalidated since the given version was read
+     */
+    public void putIfUnchanged(String key, byte[] value, long version) {
+        lock.lock();
+        try {
+            if (this.version == version)
+                put(key, value);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public void invalidate(String key) {
+        lock.lock();
+        try {
+            version++;
+            remove(key);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public void clear() {
+        lock.lock();
+        try {
+            version++;
+            entries.clear();
+            size = 0;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns the hit and miss counters of each key prefix
+     */
+    public Map<String, Stats> getStats() {
+        return stats;
+    }
+
+    private byte[] lookup(String key) {
+        lock.lock();
+        try {
+            var entry = entries.get(key);
+            if (entry == null)
+                return null;
+            if (entry.expiresAt < System.currentTimeMillis()) {
+                remove(key);
+                return null;
+            }
+            return entry.value;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void remove(String key) {
+        var old = entries.remove(key);
+        if (old != null)
+            size -= sizeOf(key, old.value);
+    }
+
+    private static long sizeOf(String key, byte[] value) {
+        return key.length() + value.length;
+    }
+
+    private record Entry(byte[] value, long expiresAt) {
+    }
+
+    public static class Stats {
+        private final LongAdder hits = new LongAdder();
+        private final LongAdder misses = new LongAdder();
+
+        public long getHits() {
+            return hits.sum();
+        }
+
+        public long getMisses() {
+            return misses.sum();
+        }
+
+        @Override
+        public String toString() {
+            return "Stats{" +
+                    "hits=" + getHits() +
+                    ", misses=" + getMisses() +
+                    '}';
+        }
+    }
+}
@@ -0,0 +1,51 @@
+package scc.cache;
+
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+/**
+ * Coalesces concurrent loads of the same key.
+ * <p>
+ * The first caller for a key runs the loader and every caller that arrives while it is running waits for
+ * its result instead of running the loader again. Results are shared between the callers, so loaders
+ * should return values that are not modified afterwards.
+ */
+public class SingleFlight {
+
+    private final Map<String, CompletableFuture<Object>> inFlight = new ConcurrentHashMap<>();
+
+    @SuppressWarnings("unchecked")
+    public <T> T load(String key, Supplier<T> loader) {
+        var call = new CompletableFuture<Object>();
+        var running = inFlight.putIfAbsent(key, call);
+        if (running != null)
+            return (T) await(running);
+
+        try {
+            T result = loader.get();
+            call.complete(result);
+            return result;
+        } catch (Throwable e) {
+            // Errors too, or the callers waiting for this load would wait forever
+            call.completeExceptionally(e);
+            throw e;
+        } finally {
+            inFlight.remove(key, call);
+        }
+    }
+
+    private static Object await(CompletableFuture<Object> call) {
+        try {
+            return call.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException cause)
+                throw cause;
+            if (e.getCause() instanceof Error cause)
+                throw cause;
+            throw e;
+        }
+    }
+}
@@ -1,10 +1,8 @@
 package scc.data;
 
-import org.bson.Document;
 import org.bson.codecs.pojo.annotations.BsonId;
 import scc.srv.utils.HasId;
 
-import java.util.ArrayList;
 import java.util.List;
 
 public class HouseDAO implements HasId {
@@ -50,20 +48,6 @@ public class HouseDAO implements HasId {
         this.rentalsCounter = rentalsCounter;
     }
 
-    public static HouseDAO fromDocument(Document document) {
-        HouseDAO houseDAO = new HouseDAO();
-        houseDAO.setId(document.getString("id"));
-        houseDAO.setName(document.getString("name"));
-        houseDAO.setLocation(document.getString("location"));
-        houseDAO.setDescription(document.getString("description"));
-        houseDAO.setPhotosIds(document.getList("photosIds", String.class, new ArrayList<>()));
-        houseDAO.setOwnerId(document.getString("ownerId"));
-        houseDAO.setPrice(document.getInteger("price"));
-        houseDAO.setDiscount(document.getInteger("discount"));
-        houseDAO.setRentalsCounter(document.getInteger("rentalsCounter"));
-        return houseDAO;
-    }
-
     @Override
     public String getId() {
         return id;
@@ -0,0 +1,101 @@
+package scc.data;
+
+import scc.srv.utils.HasId;
+
+/**
+ * The fields of a House that decide which cached listings it appears in, read without its description
+ * and photos
+ */
+
+public class HouseSummary implements HasId {
+
+    private String id;
+
+    private String name;
+
+    private String location;
+
+    private String ownerId;
+
+    private Integer price;
+
+    private Integer discount;
+
+    public HouseSummary() {
+    }
+
+    public HouseSummary(HouseDAO h) {
+        this(h.getId(), h.getName(), h.getLocation(), h.getOwnerId(), h.getPrice(), h.getDiscount());
+    }
+
+    public HouseSummary(String id, String name, String location, String ownerId, Integer price, Integer discount) {
+        super();
+        this.id = id;
+        this.name = name;
+        this.location = location;
+        this.ownerId = ownerId;
+        this.price = price;
+        this.discount = discount;
+    }
+
+    @Override
+    public String getId() {
+        return id;
+    }
+
+    public void setId(String id) {
+        this.id = id;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public void setName(String name) {
+        this.name = name;
+    }
+
+    public String getLocation() {
+        return location;
+    }
+
+    public void setLocation(String location) {
+        this.location = location;
+    }
+
+    public String getOwnerId() {
+        return ownerId;
+    }
+
+    public void setOwnerId(String ownerId) {
+        this.ownerId = ownerId;
+    }
+
+    public Integer getPrice() {
+        return price;
+    }
+
+    public void setPrice(Integer price) {
+        this.price = price;
+    }
+
+    public Integer getDiscount() {
+        return discount;
+    }
+
+    public void setDiscount(Integer discount) {
+        this.discount = discount;
+    }
+
+    @Override
+    public String toString() {
+        return "HouseSummary{" +
+                "id='" + id + '\'' +
+                ", name='" + name + '\'' +
+                ", location='" + location + '\'' +
+                ", ownerId='" + ownerId + '\'' +
+                ", price=" + price +
+                ", discount=" + discount +
+                '}';
+    }
+}
@@ -1,6 +1,5 @@
 package scc.data;
 
-import org.bson.Document;
 import org.bson.codecs.pojo.annotations.BsonId;
 import scc.srv.utils.HasId;
 
@@ -29,16 +28,6 @@ public class QuestionDAO implements HasId {
         this.answer = answer;
     }
 
-    public static QuestionDAO fromDocument(Document document) {
-        QuestionDAO questionDAO = new QuestionDAO();
-        questionDAO.setId(document.getString("id"));
-        questionDAO.setAskerId(document.getString("askerId"));
-        questionDAO.setHouseId(document.getString("houseId"));
-        questionDAO.setText(document.getString("text"));
-        questionDAO.setAnswer(document.getString("answer"));
-        return questionDAO;
-    }
-
     public String getId() {
         return id;
     }
@@ -1,9 +1,7 @@
 package scc.data;
 
-import org.bson.Document;
 import org.bson.codecs.pojo.annotations.BsonId;
 import scc.srv.utils.HasId;
-import scc.srv.utils.Utility;
 
 import java.time.Instant;
 import java.util.Date;
@@ -40,17 +38,6 @@ public class RentalDAO implements HasId {
         this.endDate = endDate;
     }
 
-    public static RentalDAO fromDocument(Document document) {
-        RentalDAO rentalDAO = new RentalDAO();
-        rentalDAO.setId(document.getString("id"));
-        rentalDAO.setHouseId(document.getString("houseId"));
-        rentalDAO.setUserId(document.getString("userId"));
-        rentalDAO.setPrice(document.getInteger("price"));
-        rentalDAO.setInitialDate(Utility.formatDate(document.getLong("initialDate")));
-        rentalDAO.setEndDate(Utility.formatDate(document.getLong("endDate")));
-        return rentalDAO;
-    }
-
     public void setId(String id) {
         this.id = id;
     }
@@ -1,6 +1,5 @@
 package scc.data;
 
-import org.bson.Document;
 import org.bson.codecs.pojo.annotations.BsonId;
 import scc.srv.utils.HasId;
 import scc.utils.Hash;
@@ -31,15 +30,6 @@ public class UserDAO implements HasId {
         this.photoId = photoId;
     }
 
-    public static UserDAO fromDocument(Document document) {
-        UserDAO userDAO = new UserDAO();
-        userDAO.setId(document.getString("id"));
-        userDAO.setName(document.getString("name"));
-        userDAO.setPwd(document.getString("pwd"));
-        userDAO.setPhotoId(document.getString("photoId"));
-        return userDAO;
-    }
-
     @Override
     public String getId() {
         return id;
@@ -1,25 +1,52 @@
 package scc.db;
 
 
+import com.mongodb.ErrorCategory;
+import com.mongodb.MongoBulkWriteException;
 import com.mongodb.MongoClient;
 import com.mongodb.MongoClientURI;
+import com.mongodb.ReadConcern;
+import com.mongodb.TransactionOptions;
+import com.mongodb.WriteConcern;
+import com.mongodb.client.ClientSession;
 import com.mongodb.client.FindIterable;
+import com.mongodb.client.MongoChangeStreamCursor;
 import com.mongodb.client.MongoCollection;
 import com.mongodb.client.MongoDatabase;
+import com.mongodb.client.model.Aggregates;
 import com.mongodb.client.model.Filters;
 import com.mongodb.client.model.Indexes;
-
+import com.mongodb.client.model.InsertManyOptions;
+import com.mongodb.client.model.Projections;
+import com.mongodb.client.model.Sorts;
+import com.mongodb.client.model.Updates;
+import com.mongodb.client.model.changestream.ChangeStreamDocument;
+import com.mongodb.client.model.changestream.FullDocument;
+
+import org.bson.BsonDocument;
 import org.bson.Document;
+import org.bson.RawBsonDocument;
+import org.bson.codecs.configuration.CodecRegistries;
+import org.bson.codecs.configuration.CodecRegistry;
 import org.bson.conversions.Bson;
 import scc.data.*;
+import scc.db.codecs.HouseCodec;
+import scc.db.codecs.QuestionCodec;
+import scc.db.codecs.RentalCodec;
+import scc.db.codecs.UserCodec;
 import scc.srv.houses.HousesService;
 import scc.srv.question.QuestionService;
 import scc.srv.rentals.RentalService;
 import scc.srv.users.UsersService;
+
 import scc.srv.utils.Utility;
 
-import java.util.ArrayList;
-import java.util.List;
+import java.time.LocalDate;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Function;
 
 
 public class MongoDBLayer {
@@ -32,114 +59,243 @@ public class MongoDBLayer {
 
     private final String ID = "id";
 
-    private static final int USER_LISTS_LIMIT = 10;
+    private static final String HOUSE_ID = "houseId";
+    private static final String RENTAL_ID = "rentalId";
+    private static final TransactionOptions RENTAL_TRANSACTION = TransactionOptions.builder()
+            .readConcern(ReadConcern.SNAPSHOT)
+            .writeConcern(WriteConcern.MAJORITY)
+            .build();
+
+    public static final int USER_LISTS_LIMIT = 10;
+
+    public static final int HOUSES_LIMIT = 10;
+
+    private static final String STREAM_BATCH_SIZE_ENV = System.getenv("MONGO_STREAM_BATCH_SIZE");
+
+    /**
+     * Number of documents fetched from the server at a time when streaming a whole collection
+     */
+    public static final int STREAM_BATCH_SIZE = STREAM_BATCH_SIZE_ENV == null ? 100 : Integer.parseInt(STREAM_BATCH_SIZE_ENV);
+
+    private static final CodecRegistry CODEC_REGISTRY = CodecRegistries.fromRegistries(
+            MongoClient.getDefaultCodecRegistry(),
+            CodecRegistries.fromCodecs(new HouseCodec(), new UserCodec(), new RentalCodec(), new QuestionCodec()));
+
+    private static final Bson ID_FIELD = Projections.fields(Projections.include("id"), Projections.excludeId());
 
-    private static final int HOUSES_LIMIT = 10;
+    private static final Bson HOUSE_SUMMARY_FIELDS = Projections.fields(
+            Projections.include("id", "name", "location", "ownerId", "price", "discount"),
+            Projections.excludeId());
 
-    private static MongoDBLayer instance;
+    private static volatile MongoDBLayer instance;
+    private static final Lock instanceLock = new ReentrantLock();
+    private final Lock collectionsLock = new ReentrantLock();
     private final MongoClient mongoClient;
-    private MongoDatabase database;
+    private volatile MongoDatabase database;
 
     private MongoDBLayer(MongoClient mongoClient) {
         this.mongoClient = mongoClient;
     }
 
-    public static synchronized MongoDBLayer getInstance() {
+    public static MongoDBLayer getInstance() {
         if (instance != null)
             return instance;
 
-        MongoClient mongoClient = new MongoClient(new MongoClientURI(CONNECTION_STRING));
-        instance = new MongoDBLayer(mongoClient);
-        return instance;
+        instanceLock.lock();
+        try {
+            if (instance == null) {
+                MongoClient mongoClient = new MongoClient(new MongoClientURI(CONNECTION_STRING));
+                instance = new MongoDBLayer(mongoClient);
+            }
+            return instance;
+        } finally {
+            instanceLock.unlock();
+        }
     }
 
-    private synchronized void init() {
+    // Getting the database does no I/O, so threads racing here just build equivalent instances
+    private void init() {
         if (database != null)
             return;
-        database = mongoClient.getDatabase(DATABASE_NAME);
+        database = mongoClient.getDatabase(DATABASE_NAME).withCodecRegistry(CODEC_REGISTRY);
     }
 
-    public synchronized void initializeCollections() {
+    public void initializeCollections() {
+        collectionsLock.lock();
+        try {
+            createCollections();
+        } finally {
+            collectionsLock.unlock();
+        }
+    }
+
+    private void createCollections() {
         init();
         createCollectionIfNotExists(UsersService.COLLECTION);
         database.getCollection(UsersService.COLLECTION).createIndex(Indexes.ascending(ID));
 
         createCollectionIfNotExists(HousesService.COLLECTION);
         database.getCollection(HousesService.COLLECTION).createIndex(Indexes.ascending(ID));
-        database.getCollection(HousesService.COLLECTION).createIndex(Indexes.ascending("location"));
+        database.getCollection(HousesService.COLLECTION).createIndex(Indexes.ascending("location", ID));
+        database.getCollection(HousesService.COLLECTION).createIndex(Indexes.ascending("ownerId", ID));
 
         createCollectionIfNotExists(RentalService.COLLECTION);
-        database.getCollection(RentalService.COLLECTION).createIndex(Indexes.ascending("houseId"));
+        database.getCollection(RentalService.COLLECTION).createIndex(Indexes.ascending("houseId", ID));
+        database.getCollection(RentalService.COLLECTION).createIndex(Indexes.ascending("userId", ID));
+
+        boolean newReservations = createCollectionIfNotExists(RentalService.RESERVATIONS_COLLECTION);
+        database.getCollection(RentalService.RESERVATIONS_COLLECTION).createIndex(Indexes.ascending(RENTAL_ID));
+        database.getCollection(RentalService.RESERVATIONS_COLLECTION).createIndex(Indexes.ascending(HOUSE_ID));
+        if (newReservations)
+            reserveExistingRentals();
 
         createCollectionIfNotExists(QuestionService.COLLECTION);
-        database.getCollection(QuestionService.COLLECTION).createIndex(Indexes.ascending("houseId"));
+        database.getCollection(QuestionService.COLLECTION).createIndex(Indexes.ascending("houseId", ID));
     }
 
-    private void createCollectionIfNotExists(String collectionName) {
+    /**
+     * Creates the collection if it does not exist yet. Returns true if it was created.
+     */
+    private boolean createCollectionIfNotExists(String collectionName) {
         for (String existingCollection : database.listCollectionNames()) {
             if (existingCollection.equalsIgnoreCase(collectionName)) {
-                return;
+                return false;
             }
         }
         database.createCollection(collectionName);
+        return true;
+    }
+
+    /**
+     * Reserves the days of the rentals made before the reservations collection existed
+     */
+    private void reserveExistingRentals() {
+        MongoCollection<Document> reservations = database.getCollection(RentalService.RESERVATIONS_COLLECTION);
+        for (var rental : database.getCollection(RentalService.COLLECTION, RentalDAO.class).find()) {
+            try {
+                reservations.insertMany(reservationsOf(rental), new InsertManyOptions().ordered(false));
+            } catch (MongoBulkWriteException e) {
+                // Days already taken by an older overlapping rental stay with it
+            }
+        }
+    }
+
+    /**
+     * Opens a change stream over the given collections, with the current version of the document in
+     * inserts, replaces and updates. It resumes after the given token, or starts now if it is null.
+     * Change streams are only available when Mongo runs as a replica set.
+     */
+    public MongoChangeStreamCursor<ChangeStreamDocument<RawBsonDocument>> watch(Collection<String> collectionNames,
+                                                                             BsonDocument resumeToken, long maxAwaitMillis) {
+        init();
+        var changes = database
+                .watch(List.of(Aggregates.match(Filters.in("ns.coll", collectionNames))), RawBsonDocument.class)
+                .fullDocument(FullDocument.UPDATE_LOOKUP)
+                .maxAwaitTime(maxAwaitMillis, TimeUnit.MILLISECONDS);
+        if (resumeToken != null)
+            changes = changes.resumeAfter(resumeToken);
+        return changes.cursor();
     }
 
     ////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
     ////////////////////////////// GENERICS
     ////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
 
-    public void create(Object item, String collectionName) {
+    @SuppressWarnings("unchecked")
+    public <T> void create(T item, String collectionName) {
         init();
-        MongoCollection<Document> collection = database.getCollection(collectionName);
-        Document document = Document.parse(Utility.itemToJsonString(item));
-        collection.insertOne(document);
+        MongoCollection<T> collection = database.getCollection(collectionName, (Class<T>) item.getClass());
+        collection.insertOne(item);
     }
 
-    public Document get(String id, String collectionName) {
+    public <T> T get(String id, String collectionName, Class<T> type) {
         init();
-        MongoCollection<Document> collection = database.getCollection(collectionName);
+        MongoCollection<T> collection = database.getCollection(collectionName, type);
         return collection.find(Filters.eq(ID, id)).first();
     }
 
+    /**
+     * Gets a document as raw BSON. It can be decoded into any of the data classes with {@link #decode}.
+     */
+    public RawBsonDocument getRaw(String id, String collectionName) {
+        init();
+        MongoCollection<RawBsonDocument> collection = database.getCollection(collectionName, RawBsonDocument.class);
+        return collection.find(Filters.eq(ID, id)).first();
+    }
+
+    public <T> T decode(RawBsonDocument document, Class<T> type) {
+        return document.decode(CODEC_REGISTRY.get(type));
+    }
+
+    private List<String> idsOf(MongoCollection<Document> collection, Bson filter) {
+        return collection.distinct(ID, filter, String.class).into(new ArrayList<>());
+    }
+
+    public boolean exists(String id, String collectionName) {
+        init();
+        MongoCollection<Document> collection = database.getCollection(collectionName);
+        return collection.find(Filters.eq(ID, id)).projection(ID_FIELD).first() != null;
+    }
+
     public void delete(String id, String collectionName) {
         init();
         MongoCollection<Document> collection = database.getCollection(collectionName);
         collection.deleteOne(Filters.eq(ID, id));
     }
 
-    public void update(String id, Object updatedItem, String collectionName) {
+    @SuppressWarnings("unchecked")
+    public <T> void update(String id, T updatedItem, String collectionName) {
         init();
-        MongoCollection<Document> collection = database.getCollection(collectionName);
-        Document updatedDocument = Document.parse(Utility.itemToJsonString(updatedItem));
-        collection.replaceOne(Filters.eq(ID, id), updatedDocument);
+        MongoCollection<T> collection = database.getCollection(collectionName, (Class<T>) updatedItem.getClass());
+        collection.replaceOne(Filters.eq(ID, id), updatedItem);
     }
 
 
-    public FindIterable<Document> getAll(String collectionName) {
+    /**
+     * Returns every document of the collection. The documents are fetched lazily, in batches of
+     * STREAM_BATCH_SIZE, as the result is iterated.
+     */
+    public <T> FindIterable<T> getAll(String collectionName, Class<T> type) {
         init();
-        return database.getCollection(collectionName).find();
+        return database.getCollection(collectionName, type).find().batchSize(STREAM_BATCH_SIZE);
+    }
+
+    /**
+     * Returns the page of documents that come after the one identified by the cursor, ordered by id.
+     * An empty cursor returns the first page.
+     */
+    private <T> FindIterable<T> findAfter(MongoCollection<T> collection, Bson filter, String cursor, int limit) {
+        if (!cursor.isEmpty())
+            filter = Filters.and(filter, Filters.gt(ID, PageCursor.decode(cursor)));
+
+        return collection
+                .find(filter)
+                .sort(Sorts.ascending(ID))
+                .limit(limit);
     }
 
     ////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
     ////////////////////////////// USERS
     ////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
 
-    public List<HouseDAO> getAllUserHouses(String userId) {
+    /**
+     * Moves every house of the user to a new owner with a single update.
+     *
+     * @return the ids of the moved houses
+     */
+    public List<String> transferUserHouses(String userId, String newOwnerId) {
         init();
         MongoCollection<Document> collection = database.getCollection(HousesService.COLLECTION);
         Bson filter = Filters.eq("ownerId", userId);
-        var result = collection.find(filter);
-
-        List<HouseDAO> houses = new ArrayList<>();
-        for (var doc : result)
-            houses.add(HouseDAO.fromDocument(doc));
-
-        return houses;
+        var ids = idsOf(collection, filter);
+        if (!ids.isEmpty())
+            collection.updateMany(filter, Updates.set("ownerId", newOwnerId));
+        return ids;
     }
 
     public List<House> listUserHouses(String userId, int offset) {
         init();
-        MongoCollection<Document> collection = database.getCollection(HousesService.COLLECTION);
+        MongoCollection<HouseDAO> collection = database.getCollection(HousesService.COLLECTION, HouseDAO.class);
         Bson filter = Filters.eq("ownerId", userId);
         var result = collection
                 .find(filter)
@@ -147,15 +303,27 @@ public class MongoDBLayer {
                 .limit(USER_LISTS_LIMIT);
 
         List<House> houses = new ArrayList<>();
-        for (var doc : result)
-            houses.add(HouseDAO.fromDocument(doc).toHouse());
+        for (var house : result)
+            houses.add(house.toHouse());
+
+        return houses;
+    }
+
+    public List<House> listUserHousesAfter(String userId, String cursor) {
+        init();
+        MongoCollection<HouseDAO> collection = database.getCollection(HousesService.COLLECTION, HouseDAO.class);
+        var result = findAfter(collection, Filters.eq("ownerId", userId), cursor, USER_LISTS_LIMIT);
+
+        List<House> houses = new ArrayList<>();
+        for (var house : result)
+            houses.add(house.toHouse());
 
         return houses;
     }
 
     public List<Rental> listUserRentals(String userId, int offset) {
         init();
-        MongoCollection<Document> collection = database.getCollection(RentalService.COLLECTION);
+        MongoCollection<RentalDAO> collection = database.getCollection(RentalService.COLLECTION, RentalDAO.class);
         Bson filter = Filters.eq("userId", userId);
         var result = collection
                 .find(filter)
@@ -163,23 +331,37 @@ public class MongoDBLayer {
                 .limit(USER_LISTS_LIMIT);
 
         List<Rental> houses = new ArrayList<>();
-        for (var doc : result)
-            houses.add(RentalDAO.fromDocument(doc).toRental());
+        for (var rental : result)
+            houses.add(rental.toRental());
 
         return houses;
     }
 
-    public List<RentalDAO> getAllUserRentals(String userId) {
+    public List<Rental> listUserRentalsAfter(String userId, String cursor) {
         init();
-        MongoCollection<Document> collection = database.getCollection(RentalService.COLLECTION);
-        Bson filter = Filters.eq("userId", userId);
-        var result = collection.find(filter);
+        MongoCollection<RentalDAO> collection = database.getCollection(RentalService.COLLECTION, RentalDAO.class);
+        var result = findAfter(collection, Filters.eq("userId", userId), cursor, USER_LISTS_LIMIT);
 
-        List<RentalDAO> houses = new ArrayList<>();
-        for (var doc : result)
-            houses.add(RentalDAO.fromDocument(doc));
+        List<Rental> rentals = new ArrayList<>();
+        for (var rental : result)
+            rentals.add(rental.toRental());
 
-        return houses;
+        return rentals;
+    }
+
+    /**
+     * Moves every rental of the user to a new user with a single update.
+     *
+     * @return the ids of the moved rentals
+     */
+    public List<String> transferUserRentals(String userId, String newUserId) {
+        init();
+        MongoCollection<Document> collection = database.getCollection(RentalService.COLLECTION);
+        Bson filter = Filters.eq("userId", userId);
+        var ids = idsOf(collection, filter);
+        if (!ids.isEmpty())
+            collection.updateMany(filter, Updates.set("userId", newUserId));
+        return ids;
     }
 
     ////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////////
@@ -188,20 +370,151 @@ public class MongoDBLayer {
 
     public List<RentalDAO> getAllHouseRentals(String houseId) {
         init();
-        MongoCollection<Document> collection = database.getCollection(RentalService.COLLECTION);
+        MongoCollection<RentalDAO> collection = database.getCollection(RentalService.COLLECTION, RentalDAO.class);
         Bson filter = Filters.eq("houseId", houseId);
-        var result = collection.find(filter);
+        return collection.find(filter).into(new ArrayList<>());
+    }
 
-        List<RentalDAO> houses = new ArrayList<>();
-        for (var doc : result)
-            houses.add(RentalDAO.fromDocument(doc));
+    /**
+     * Books a rental: reserves each of its days for the house, stores the rental and increments the
+     * rentals counter of the house, in a single transaction.
+     * <p>
+     * Every reservation has the house and the day as its _id, so two rentals can never hold the same day
+     * and the one that reserves it second is rejected by the unique _id index, even when both requests
+     * passed the availability check at the same time. The transaction is then aborted, so a rejected or
+     * failed booking leaves nothing behind. Transactions need Mongo to run as a replica set.
+     *
+     * @return false if some day of the rental is already reserved
+     */
+    public boolean bookRental(RentalDAO rental) {
+        init();
+        MongoCollection<Document> reservations = database.getCollection(RentalService.RESERVATIONS_COLLECTION);
+        MongoCollection<RentalDAO> rentals = database.getCollection(RentalService.COLLECTION, RentalDAO.class);
+        MongoCollection<Document> houses = database.getCollection(HousesService.COLLECTION);
+
+        var days = reservationsOf(rental);
+        try {
+            return inTransaction(session -> {
+                reservations.insertMany(session, days);
+                rentals.insertOne(session, rental);
+                houses.updateOne(session, Filters.eq(ID, rental.getHouseId()), Updates.inc("rentalsCounter", 1));
+                return true;
+            });
+        } catch (MongoBulkWriteException e) {
+            if (e.getWriteErrors().stream()
+                    .anyMatch(error -> ErrorCategory.fromErrorCode(error.getCode()) == ErrorCategory.DUPLICATE_KEY))
+                return false;
+            throw e;
+        }
+    }
 
-        return houses;
+    /**
+     * Deletes a rental and frees the days it reserved, in a single transaction, so its days are never
+     * left reserved with no rental behind them
+     */
+    public void deleteRental(String rentalId) {
+        init();
+        MongoCollection<Document> rentals = database.getCollection(RentalService.COLLECTION);
+        MongoCollection<Document> reservations = database.getCollection(RentalService.RESERVATIONS_COLLECTION);
+        inTransaction(session -> {
+            rentals.deleteOne(session, Filters.eq(ID, rentalId));
+            reservations.deleteMany(session, Filters.eq(RENTAL_ID, rentalId));
+            return null;
+        });
     }
 
-    public List<Rental> listHouseRentals(String houseId, int offset) {
+    /**
+     * Deletes every rental of the house, and the days they reserved, with one statement per collection,
+     * in a single transaction.
+     *
+     * @return the ids of the deleted rentals
+     */
+    public List<String> deleteHouseRentals(String houseId) {
+        init();
+        MongoCollection<Document> rentals = database.getCollection(RentalService.COLLECTION);
+        MongoCollection<Document> reservations = database.getCollection(RentalService.RESERVATIONS_COLLECTION);
+        Bson filter = Filters.eq(HOUSE_ID, houseId);
+        return inTransaction(session -> {
+            var ids = rentals.distinct(session, ID, filter, String.class).into(new ArrayList<>());
+            if (!ids.isEmpty())
+                rentals.deleteMany(session, filter);
+            reservations.deleteMany(session, filter);
+            return ids;
+        });
+    }
+
+    /**
+     * Runs the body in a transaction, retried on transient errors. Transactions need Mongo to run as a
+     * replica set.
+     */
+    private <T> T inTransaction(Function<ClientSession, T> body) {
+        try (ClientSession session = mongoClient.startSession()) {
+            return session.withTransaction(() -> body.apply(session), RENTAL_TRANSACTION);
+        }
+    }
+
+    /**
+     * One reservation per UTC day of the rental, both ends included, like the overlap checks
+     */
+    private static List<Document> reservationsOf(RentalDAO rental) {
+        LocalDate day = Utility.dayOf(rental.getInitialDate());
+        LocalDate last = Utility.dayOf(rental.getEndDate());
+
+        List<Document> reservations = new ArrayList<>();
+        for (; !day.isAfter(last); day = day.plusDays(1)) {
+            var reservation = new Document("_id", rental.getHouseId() + ":" + day)
+                    .append(HOUSE_ID, rental.getHouseId())
+                    .append(RENTAL_ID, rental.getId());
+            reservations.add(reservation);
+        }
+        return reservations;
+    }
+
+    /**
+     * Returns the fields of the house shown in listings, or null if the house does not exist
+     */
+    public HouseSummary getHouseSummary(String houseId) {
+        init();
+        MongoCollection<HouseDAO> collection = database.getCollection(HousesService.COLLECTION, HouseDAO.class);
+        var house = collection.find(Filters.eq(ID, houseId)).projection(HOUSE_SUMMARY_FIELDS).first();
+        return house == null ? null : new HouseSummary(house);
+    }
+
+    /**
+     * Returns the owner of the house, or null if the house does not exist
+     */
+    public String getHouseOwner(String houseId) {
+        init();
+        MongoCollection<HouseDAO> collection = database.getCollection(HousesService.COLLECTION, HouseDAO.class);
+        var house = collection
+                .find(Filters.eq(ID, houseId))
+                .projection(Projections.fields(Projections.include("ownerId"), Projections.excludeId()))
+                .first();
+        return house == null ? null : house.getOwnerId();
+    }
+
+    /**
+     * Returns the ids of the given houses that have some rental overlapping the days of the period
+     * [start, end], in UTC
+     */
+    public Set<String> getBookedHouses(Collection<String> houseIds, Date start, Date end) {
         init();
         MongoCollection<Document> collection = database.getCollection(RentalService.COLLECTION);
+        Bson filter = Filters.and(
+                Filters.in("houseId", houseIds),
+                Filters.lt("initialDate", Utility.startOf(Utility.dayOf(end).plusDays(1)).getTime()),
+                Filters.gte("endDate", Utility.startOf(Utility.dayOf(start)).getTime()));
+
+        Set<String> booked = new HashSet<>();
+        for (var houseId : collection.distinct("houseId", filter, String.class))
+            booked.add(houseId);
+
+        return booked;
+    }
+
+    public List<Rental> listHouseRentals(String houseId, int offset) {
+        init();
+        MongoCollection<RentalDAO> collection = database.getCollection(RentalService.COLLECTION, RentalDAO.class);
         Bson filter = Filters.eq("houseId", houseId);
         var result = collection
                 .find(filter)
@@ -209,15 +522,31 @@ public class MongoDBLayer {
                 .limit(HOUSES_LIMIT);
 
         List<Rental> houses = new ArrayList<>();
-        for (var doc : result)
-            houses.add(RentalDAO.fromDocument(doc).toRental());
+        for (var rental : result)
+            houses.add(rental.toRental());
 
         return houses;
     }
 
+    public List<Rental> listHouseRentalsAfter(String houseId, String cursor) {
+        init();
+        MongoCollection<RentalDAO> collection = database.getCollection(RentalService.COLLECTION, RentalDAO.class);
+        var result = findAfter(collection, Filters.eq("houseId", houseId), cursor, HOUSES_LIMIT);
+
+        List<Rental> rentals = new ArrayList<>();
+        for (var rental : result)
+            rentals.add(rental.toRental());
+
+        return rentals;
+    }
+
+    /**
+     * Returns a page of the houses in a location, with every field of the house, since the search results
+     * show them all
+     */
     public List<House> getHousesByLocation(String location, int offset) {
         init();
-        MongoCollection<Document> collection = database.getCollection(HousesService.COLLECTION);
+        MongoCollection<HouseDAO> collection = database.getCollection(HousesService.COLLECTION, HouseDAO.class);
         Bson filter = Filters.eq("location", location);
         var result = collection
                 .find(filter)
@@ -225,15 +554,27 @@ public class MongoDBLayer {
                 .limit(HOUSES_LIMIT);
 
         List<House> houses = new ArrayList<>();
-        for (var doc : result)
-            houses.add(HouseDAO.fromDocument(doc).toHouse());
+        for (var house : result)
+            houses.add(house.toHouse());
+
+        return houses;
+    }
+
+    public List<House> getHousesByLocationAfter(String location, String cursor) {
+        init();
+        MongoCollection<HouseDAO> collection = database.getCollection(HousesService.COLLECTION, HouseDAO.class);
+        var result = findAfter(collection, Filters.eq("location", location), cursor, HOUSES_LIMIT);
+
+        List<House> houses = new ArrayList<>();
+        for (var house : result)
+            houses.add(house.toHouse());
 
         return houses;
     }
 
     public List<House> getHousesWithDiscount(int offset) {
         init();
-        MongoCollection<Document> collection = database.getCollection(HousesService.COLLECTION);
+        MongoCollection<HouseDAO> collection = database.getCollection(HousesService.COLLECTION, HouseDAO.class);
         Bson filter = Filters.gt("discount", 0);
         var result = collection
                 .find(filter)
@@ -241,8 +582,20 @@ public class MongoDBLayer {
                 .limit(HOUSES_LIMIT);
 
         List<House> houses = new ArrayList<>();
-        for (var doc : result)
-            houses.add(HouseDAO.fromDocument(doc).toHouse());
+        for (var house : result)
+            houses.add(house.toHouse());
+
+        return houses;
+    }
+
+    public List<House> getHousesWithDiscountAfter(String cursor) {
+        init();
+        MongoCollection<HouseDAO> collection = database.getCollection(HousesService.COLLECTION, HouseDAO.class);
+        var result = findAfter(collection, Filters.gt("discount", 0), cursor, HOUSES_LIMIT);
+
+        List<House> houses = new ArrayList<>();
+        for (var house : result)
+            houses.add(house.toHouse());
 
         return houses;
     }
@@ -253,7 +606,7 @@ public class MongoDBLayer {
 
     public List<Question> getHouseQuestions(String houseId, int offset) {
         init();
-        MongoCollection<Document> collection = database.getCollection(QuestionService.COLLECTION);
+        MongoCollection<QuestionDAO> collection = database.getCollection(QuestionService.COLLECTION, QuestionDAO.class);
         Bson filter = Filters.eq("houseId", houseId);
         var result = collection
                 .find(filter)
@@ -261,8 +614,20 @@ public class MongoDBLayer {
                 .limit(HOUSES_LIMIT);
 
         List<Question> questions = new ArrayList<>();
-        for (var doc : result)
-            questions.add(QuestionDAO.fromDocument(doc).toQuestion());
+        for (var question : result)
+            questions.add(question.toQuestion());
+
+        return questions;
+    }
+
+    public List<Question> getHouseQuestionsAfter(String houseId, String cursor) {
+        init();
+        MongoCollection<QuestionDAO> collection = database.getCollection(QuestionService.COLLECTION, QuestionDAO.class);
+        var result = findAfter(collection, Filters.eq("houseId", houseId), cursor, HOUSES_LIMIT);
+
+        List<Question> questions = new ArrayList<>();
+        for (var question : result)
+            questions.add(question.toQuestion());
 
         return questions;
     }
@@ -0,0 +1,43 @@
+package scc.db;
+
+import scc.srv.utils.HasId;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.List;
+
+/**
+ * Opaque continuation token used by the keyset paginated listings.
+ * <p>
+ * A token holds the id of the last element of a page, and the next page is made of the elements
+ * with a greater id. An empty token asks for the first page.
+ */
+public class PageCursor {
+
+    private PageCursor() {
+    }
+
+    public static String encode(String lastId) {
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(lastId.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Returns the id held by the token, or null if the token is not valid
+     */
+    public static String decode(String cursor) {
+        try {
+            return new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Returns the token for the page after the given one, or null if it was the last page
+     */
+    public static String next(List<? extends HasId> page, int limit) {
+        if (page.size() < limit)
+            return null;
+        return encode(page.get(page.size() - 1).getId());
+    }
+}
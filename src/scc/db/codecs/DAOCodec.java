@@ -0,0 +1,122 @@
+package scc.db.codecs;
+
+import org.bson.BsonReader;
+import org.bson.BsonType;
+import org.bson.BsonWriter;
+import org.bson.codecs.Codec;
+import org.bson.codecs.DecoderContext;
+import org.bson.codecs.EncoderContext;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * Base of the codecs that write the DAOs straight to BSON.
+ * <p>
+ * The documents keep the layout they had when they were written as JSON: the id is a regular "id" field,
+ * dates are epoch milliseconds and absent values are written as null. Fields that the DAO does not know,
+ * such as "_id", are skipped when reading.
+ */
+public abstract class DAOCodec<T> implements Codec<T> {
+
+    protected abstract T newInstance();
+
+    protected abstract void writeFields(BsonWriter writer, T value);
+
+    protected abstract void readField(BsonReader reader, String name, T value);
+
+    @Override
+    public void encode(BsonWriter writer, T value, EncoderContext encoderContext) {
+        writer.writeStartDocument();
+        writeFields(writer, value);
+        writer.writeEndDocument();
+    }
+
+    @Override
+    public T decode(BsonReader reader, DecoderContext decoderContext) {
+        T value = newInstance();
+        reader.readStartDocument();
+        while (reader.readBsonType() != BsonType.END_OF_DOCUMENT)
+            readField(reader, reader.readName(), value);
+        reader.readEndDocument();
+        return value;
+    }
+
+    protected static void writeString(BsonWriter writer, String name, String value) {
+        if (value == null)
+            writer.writeNull(name);
+        else
+            writer.writeString(name, value);
+    }
+
+    protected static void writeInteger(BsonWriter writer, String name, Integer value) {
+        if (value == null)
+            writer.writeNull(name);
+        else
+            writer.writeInt32(name, value);
+    }
+
+    protected static void writeDate(BsonWriter writer, String name, Date value) {
+        if (value == null)
+            writer.writeNull(name);
+        else
+            writer.writeInt64(name, value.getTime());
+    }
+
+    protected static void writeStringList(BsonWriter writer, String name, List<String> values) {
+        if (values == null) {
+            writer.writeNull(name);
+            return;
+        }
+        writer.writeStartArray(name);
+        for (String value : values)
+            writer.writeString(value);
+        writer.writeEndArray();
+    }
+
+    protected static String readString(BsonReader reader) {
+        if (reader.getCurrentBsonType() == BsonType.NULL) {
+            reader.readNull();
+            return null;
+        }
+        return reader.readString();
+    }
+
+    protected static Integer readInteger(BsonReader reader) {
+        return switch (reader.getCurrentBsonType()) {
+            case NULL -> {
+                reader.readNull();
+                yield null;
+            }
+            case INT64 -> (int) reader.readInt64();
+            case DOUBLE -> (int) reader.readDouble();
+            default -> reader.readInt32();
+        };
+    }
+
+    protected static Date readDate(BsonReader reader) {
+        return switch (reader.getCurrentBsonType()) {
+            case NULL -> {
+                reader.readNull();
+                yield null;
+            }
+            case DATE_TIME -> new Date(reader.readDateTime());
+            case INT32 -> new Date(reader.readInt32());
+            default -> new Date(reader.readInt64());
+        };
+    }
+
+    protected static List<String> readStringList(BsonReader reader) {
+        List<String> values = new ArrayList<>();
+        if (reader.getCurrentBsonType() == BsonType.NULL) {
+            reader.readNull();
+            return values;
+        }
+        reader.readStartArray();
+        while (reader.readBsonType() != BsonType.END_OF_DOCUMENT)
+            values.add(reader.readString());
+        reader.readEndArray();
+        return values;
+    }
+}
@@ -0,0 +1,47 @@
+package scc.db.codecs;
+
+import org.bson.BsonReader;
+import org.bson.BsonWriter;
+import scc.data.HouseDAO;
+
+public class HouseCodec extends DAOCodec<HouseDAO> {
+
+    @Override
+    public Class<HouseDAO> getEncoderClass() {
+        return HouseDAO.class;
+    }
+
+    @Override
+    protected HouseDAO newInstance() {
+        return new HouseDAO();
+    }
+
+    @Override
+    protected void writeFields(BsonWriter writer, HouseDAO house) {
+        writeString(writer, "id", house.getId());
+        writeString(writer, "name", house.getName());
+        writeString(writer, "location", house.getLocation());
+        writeString(writer, "description", house.getDescription());
+        writeStringList(writer, "photosIds", house.getPhotosIds());
+        writeString(writer, "ownerId", house.getOwnerId());
+        writeInteger(writer, "price", house.getPrice());
+        writeInteger(writer, "discount", house.getDiscount());
+        writeInteger(writer, "rentalsCounter", house.getRentalsCounter());
+    }
+
+    @Override
+    protected void readField(BsonReader reader, String name, HouseDAO house) {
+        switch (name) {
+            case "id" -> house.setId(readString(reader));
+            case "name" -> house.setName(readString(reader));
+            case "location" -> house.setLocation(readString(reader));
+            case "description" -> house.setDescription(readString(reader));
+            case "photosIds" -> house.setPhotosIds(readStringList(reader));
+            case "ownerId" -> house.setOwnerId(readString(reader));
+            case "price" -> house.setPrice(readInteger(reader));
+            case "discount" -> house.setDiscount(readInteger(reader));
+            case "rentalsCounter" -> house.setRentalsCounter(readInteger(reader));
+            default -> reader.skipValue();
+        }
+    }
+}
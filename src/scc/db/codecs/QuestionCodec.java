@@ -0,0 +1,39 @@
+package scc.db.codecs;
+
+import org.bson.BsonReader;
+import org.bson.BsonWriter;
+import scc.data.QuestionDAO;
+
+public class QuestionCodec extends DAOCodec<QuestionDAO> {
+
+    @Override
+    public Class<QuestionDAO> getEncoderClass() {
+        return QuestionDAO.class;
+    }
+
+    @Override
+    protected QuestionDAO newInstance() {
+        return new QuestionDAO();
+    }
+
+    @Override
+    protected void writeFields(BsonWriter writer, QuestionDAO question) {
+        writeString(writer, "id", question.getId());
+        writeString(writer, "askerId", question.getAskerId());
+        writeString(writer, "houseId", question.getHouseId());
+        writeString(writer, "text", question.getText());
+        writeString(writer, "answer", question.getAnswer());
+    }
+
+    @Override
+    protected void readField(BsonReader reader, String name, QuestionDAO question) {
+        switch (name) {
+            case "id" -> question.setId(readString(reader));
+            case "askerId" -> question.setAskerId(readString(reader));
+            case "houseId" -> question.setHouseId(readString(reader));
+            case "text" -> question.setText(readString(reader));
+            case "answer" -> question.setAnswer(readString(reader));
+            default -> reader.skipValue();
+        }
+    }
+}
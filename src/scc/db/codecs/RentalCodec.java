@@ -0,0 +1,41 @@
+package scc.db.codecs;
+
+import org.bson.BsonReader;
+import org.bson.BsonWriter;
+import scc.data.RentalDAO;
+
+public class RentalCodec extends DAOCodec<RentalDAO> {
+
+    @Override
+    public Class<RentalDAO> getEncoderClass() {
+        return RentalDAO.class;
+    }
+
+    @Override
+    protected RentalDAO newInstance() {
+        return new RentalDAO();
+    }
+
+    @Override
+    protected void writeFields(BsonWriter writer, RentalDAO rental) {
+        writeString(writer, "id", rental.getId());
+        writeString(writer, "houseId", rental.getHouseId());
+        writeString(writer, "userId", rental.getUserId());
+        writeInteger(writer, "price", rental.getPrice());
+        writeDate(writer, "initialDate", rental.getInitialDate());
+        writeDate(writer, "endDate", rental.getEndDate());
+    }
+
+    @Override
+    protected void readField(BsonReader reader, String name, RentalDAO rental) {
+        switch (name) {
+            case "id" -> rental.setId(readString(reader));
+            case "houseId" -> rental.setHouseId(readString(reader));
+            case "userId" -> rental.setUserId(readString(reader));
+            case "price" -> rental.setPrice(readInteger(reader));
+            case "initialDate" -> rental.setInitialDate(readDate(reader));
+            case "endDate" -> rental.setEndDate(readDate(reader));
+            default -> reader.skipValue();
+        }
+    }
+}
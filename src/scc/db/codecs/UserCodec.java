@@ -0,0 +1,37 @@
+package scc.db.codecs;
+
+import org.bson.BsonReader;
+import org.bson.BsonWriter;
+import scc.data.UserDAO;
+
+public class UserCodec extends DAOCodec<UserDAO> {
+
+    @Override
+    public Class<UserDAO> getEncoderClass() {
+        return UserDAO.class;
+    }
+
+    @Override
+    protected UserDAO newInstance() {
+        return new UserDAO();
+    }
+
+    @Override
+    protected void writeFields(BsonWriter writer, UserDAO user) {
+        writeString(writer, "id", user.getId());
+        writeString(writer, "name", user.getName());
+        writeString(writer, "pwd", user.getPwd());
+        writeString(writer, "photoId", user.getPhotoId());
+    }
+
+    @Override
+    protected void readField(BsonReader reader, String name, UserDAO user) {
+        switch (name) {
+            case "id" -> user.setId(readString(reader));
+            case "name" -> user.setName(readString(reader));
+            case "pwd" -> user.setPwd(readString(reader));
+            case "photoId" -> user.setPhotoId(readString(reader));
+            default -> reader.skipValue();
+        }
+    }
+}
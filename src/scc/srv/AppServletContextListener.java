@@ -3,16 +3,27 @@ package scc.srv;
 import jakarta.servlet.ServletContextEvent;
 import jakarta.servlet.ServletContextListener;
 import scc.db.MongoDBLayer;
+import scc.srv.authentication.Sessions;
+import scc.srv.media.MediaStore;
+import scc.srv.utils.IoExecutor;
 
 public class AppServletContextListener implements ServletContextListener {
     @Override
     public void contextInitialized(ServletContextEvent sce) {
         // Initialization logic when the servlet context is initialized
+        Sessions.checkSecret();
+        Sessions.start();
         MongoDBLayer.getInstance().initializeCollections();
+        MediaStore.getInstance();
+        CacheMaintainer.getInstance().start();
+        StatsReporter.getInstance().start();
     }
 
     @Override
     public void contextDestroyed(ServletContextEvent sce) {
         // Cleanup logic when the servlet context is destroyed
+        CacheMaintainer.getInstance().stop();
+        StatsReporter.getInstance().stop();
+        IoExecutor.shutdown();
     }
 }
\ No newline at end of file
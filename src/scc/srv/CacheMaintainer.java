@@ -0,0 +1,465 @@
+package scc.srv;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.mongodb.MongoCommandException;
+import com.mongodb.client.model.changestream.ChangeStreamDocument;
+import com.mongodb.client.model.changestream.OperationType;
+import org.bson.BsonDocument;
+import org.bson.BsonValue;
+import org.bson.RawBsonDocument;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import scc.cache.Cache;
+import scc.data.House;
+import scc.data.HouseDAO;
+import scc.db.MongoDBLayer;
+import scc.srv.houses.HousesService;
+import scc.srv.question.QuestionService;
+import scc.srv.rentals.RentalService;
+import scc.srv.users.UsersService;
+import scc.srv.utils.HasId;
+
+import java.util.*;
+
+/**
+ * Keeps the cached pages and feeds coherent with the database by following its change stream.
+ * <p>
+ * The resources still drop the pages that their own writes affect through the page tags, as soon as the
+ * write is done. This is the backstop for the changes they do not see: writes made outside this
+ * application, writes of a replica that stopped before invalidating, and invalidations that failed.
+ * <p>
+ * Every change of a house, rental, question or user drops the cached pages that may contain it and the
+ * cached copy of the document, and changes of houses keep the new houses and recent discounts feeds up to
+ * date. The changes that arrive together are applied as one batch, so a bulk update drops each page once.
+ * <p>
+ * Pages are dropped through the tags they were cached with (see Cache.invalidateTag).
+ * <p>
+ * Only one replica follows the stream at a time, the one holding a lease in Redis, and it saves its
+ * position in the stream there too, so another replica continues from it if it stops. Deletes only carry
+ * the Mongo _id of the document, so the fields that decide which pages hold a document are kept in Redis,
+ * keyed by its _id, for SHADOW_EXPIRE_TIME after its last change. Changes of documents that were not
+ * changed within that time are handled by dropping all pages of their kind.
+ * <p>
+ * Change streams need Mongo to run as a replica set. Otherwise it stops, and only the pages that the
+ * resources drop on their own writes are refreshed before they expire.
+ */
+public class CacheMaintainer implements Runnable {
+
+    private static final Logger log = LoggerFactory.getLogger(CacheMaintainer.class);
+
+    static final String LEASE_KEY = "cs:leader";
+    static final String RESUME_TOKEN_KEY = "cs:resume";
+    static final String SHADOW_PREFIX = "cs:%s:";
+
+    static final long LEASE_TIME = 15000;
+    private static final long RENEW_INTERVAL = LEASE_TIME / 3;
+    private static final long MAX_AWAIT_TIME = 2000;
+    private static final int MAX_BATCH = 1000;
+
+    // Keeps the memory used by the shadows bounded by the documents that change, not by all of them
+    static final long SHADOW_EXPIRE_TIME = 24 * 3600; // 1 day
+
+    private static final int NEW_HOUSES_LIMIT = 10;
+    private static final long MOST_RECENT_DISCOUNTS_EXPIRE_TIME = 300;
+
+    // Mongo error codes
+    private static final int NOT_A_REPLICA_SET = 40573;
+    private static final int HISTORY_LOST = 286;
+    private static final int FATAL_ERROR = 280;
+
+    private static final List<String> COLLECTIONS = List.of(HousesService.COLLECTION, RentalService.COLLECTION,
+            QuestionService.COLLECTION, UsersService.COLLECTION);
+
+    private static final String ID = "id";
+    private static final String LOCATION = "location";
+    private static final String OWNER_ID = "ownerId";
+    private static final String DISCOUNT = "discount";
+    private static final String HOUSE_ID = "houseId";
+    private static final String USER_ID = "userId";
+    private static final String RENTALS_COUNTER = "rentalsCounter";
+
+    private static final CacheMaintainer instance = new CacheMaintainer();
+
+    private final MongoDBLayer db = MongoDBLayer.getInstance();
+    private final String nodeId = UUID.randomUUID().toString();
+    private volatile boolean running;
+    private Thread thread;
+
+    private CacheMaintainer() {
+    }
+
+    public static CacheMaintainer getInstance() {
+        return instance;
+    }
+
+    public void start() {
+        running = true;
+        thread = new Thread(this, "cache-maintainer");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Stops following the stream and waits for the lease to be released, so another replica takes over
+     * without waiting for it to expire
+     */
+    public void stop() {
+        running = false;
+        if (thread == null)
+            return;
+        thread.interrupt();
+        try {
+            thread.join(LEASE_TIME);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Override
+    public void run() {
+        while (running) {
+            try {
+                if (Cache.acquireLease(LEASE_KEY, nodeId, LEASE_TIME)) {
+                    try {
+                        follow();
+                    } finally {
+                        Cache.releaseLease(LEASE_KEY, nodeId);
+                    }
+                }
+            } catch (MongoCommandException e) {
+                if (e.getErrorCode() == NOT_A_REPLICA_SET) {
+                    log.warn("Change streams are not supported by the database, cached pages will only expire");
+                    return;
+                }
+                if (e.getErrorCode() == HISTORY_LOST || e.getErrorCode() == FATAL_ERROR)
+                    startOver();
+                else
+                    log.error("Following the change stream failed, retrying", e);
+            } catch (Exception e) {
+                log.error("Following the change stream failed, retrying", e);
+            }
+            pause();
+        }
+    }
+
+    /**
+     * Applies the changes while this replica holds the lease.
+     * <p>
+     * The lease is renewed every RENEW_INTERVAL, also while working through a backlog, and before the
+     * batch is applied and the position saved, so a replica that lost it leaves them to the new holder.
+     * The RENEW_INTERVAL timer is kept by this loop rather than by a separate thread, so a replica that
+     * stops making progress also loses the lease.
+     */
+    private void follow() throws JsonProcessingException {
+        try (var cursor = db.watch(COLLECTIONS, resumeToken(), MAX_AWAIT_TIME)) {
+            var batch = new Batch();
+            long renewedAt = System.currentTimeMillis();
+            while (running) {
+                var change = cursor.tryNext();
+                if (change != null) {
+                    apply(change, batch);
+                    if (batch.size() < MAX_BATCH && System.currentTimeMillis() - renewedAt < RENEW_INTERVAL)
+                        continue;
+                }
+                if (!Cache.renewLease(LEASE_KEY, nodeId, LEASE_TIME))
+                    return;
+                renewedAt = System.currentTimeMillis();
+                batch.flush();
+                if (cursor.getResumeToken() != null)
+                    Cache.putValue(RESUME_TOKEN_KEY, cursor.getResumeToken().toJson());
+            }
+        }
+    }
+
+    private void apply(ChangeStreamDocument<RawBsonDocument> change, Batch batch) throws JsonProcessingException {
+        var operation = change.getOperationType();
+        if (operation == OperationType.DROP || operation == OperationType.RENAME
+                || operation == OperationType.DROP_DATABASE || operation == OperationType.INVALIDATE) {
+            dropAllPages(batch);
+            return;
+        }
+
+        String collection = change.getNamespace().getCollectionName();
+        String shadowKey = String.format(SHADOW_PREFIX, collection) + keyOf(change.getDocumentKey().get("_id"));
+
+        var document = change.getFullDocument();
+        Map<String, String> previous = operation == OperationType.INSERT ? null : Cache.getFields(shadowKey);
+        if (previous != null && previous.isEmpty())
+            previous = null;
+        Map<String, String> current = document == null ? null : shadowOf(collection, document);
+
+        if (current == null)
+            Cache.delete(shadowKey);
+        else
+            Cache.putFields(shadowKey, current, SHADOW_EXPIRE_TIME);
+
+        boolean known = operation == OperationType.INSERT || previous != null;
+        switch (collection) {
+            case HousesService.COLLECTION -> houseChanged(change, document, previous, current, known, batch);
+            case RentalService.COLLECTION -> rentalChanged(operation, previous, current, known, batch);
+            case QuestionService.COLLECTION -> questionChanged(operation, previous, current, known, batch);
+            case UsersService.COLLECTION -> userChanged(operation, previous, current, batch);
+        }
+    }
+
+    private void houseChanged(ChangeStreamDocument<RawBsonDocument> change, RawBsonDocument document,
+                              Map<String, String> previous, Map<String, String> current, boolean known, Batch batch)
+            throws JsonProcessingException {
+        var operation = change.getOperationType();
+        String id = idOf(previous, current);
+
+        if (operation != OperationType.INSERT && id != null)
+            batch.evict(HousesService.HOUSE_PREFIX, id);
+
+        // Bookings only change the counter of the house
+        var update = change.getUpdateDescription();
+        boolean counterOnly = operation == OperationType.UPDATE && update != null
+                && update.getUpdatedFields().keySet().equals(Set.of(RENTALS_COUNTER));
+
+        if (counterOnly) {
+            // The counter is not shown in the pages
+        } else if (!known) {
+            batch.dropPages(HousesService.LOCATION_PAGES_TAG);
+            batch.dropPages(UsersService.OWNER_PAGES_TAG);
+            batch.dropPages(HousesService.DISCOUNT_PAGES_TAG);
+        } else {
+            for (var house : List.of(Optional.ofNullable(previous), Optional.ofNullable(current))) {
+                if (house.isEmpty())
+                    continue;
+                batch.dropPages(tag(HousesService.LOCATION_TAG, HousesService.LOCATION_PAGES_TAG,
+                        house.get().get(LOCATION)));
+                batch.dropPages(tag(UsersService.OWNER_TAG, UsersService.OWNER_PAGES_TAG, house.get().get(OWNER_ID)));
+                if (hasDiscount(house.get()))
+                    batch.dropPages(HousesService.DISCOUNT_PAGES_TAG);
+            }
+        }
+
+        HouseDAO house = document == null ? null : db.decode(document, HouseDAO.class);
+        updateNewHouses(operation, id, house);
+        updateMostRecentDiscounts(operation, id, house);
+    }
+
+    private void rentalChanged(OperationType operation, Map<String, String> previous, Map<String, String> current,
+                               boolean known, Batch batch) {
+        String id = idOf(previous, current);
+        if (operation != OperationType.INSERT && id != null)
+            batch.evict(RentalService.RENTAL_PREFIX, id);
+
+        if (!known) {
+            batch.dropPages(RentalService.HOUSE_RENTALS_PAGES_TAG);
+            batch.dropPages(UsersService.RENTER_PAGES_TAG);
+            batch.dropPages(HousesService.LOCATION_PAGES_TAG);
+            batch.dropPages(HousesService.DISCOUNT_PAGES_TAG);
+            return;
+        }
+
+        Set<String> houseIds = new HashSet<>();
+        for (var rental : List.of(Optional.ofNullable(previous), Optional.ofNullable(current))) {
+            if (rental.isEmpty())
+                continue;
+            batch.dropPages(tag(RentalService.HOUSE_RENTALS_TAG, RentalService.HOUSE_RENTALS_PAGES_TAG,
+                    rental.get().get(HOUSE_ID)));
+            batch.dropPages(tag(UsersService.RENTER_TAG, UsersService.RENTER_PAGES_TAG, rental.get().get(USER_ID)));
+            houseIds.add(rental.get().get(HOUSE_ID));
+        }
+
+        // The location and discount pages only list the houses that are available
+        for (String houseId : houseIds) {
+            var house = db.getHouseSummary(houseId);
+            if (house == null)
+                continue;
+            batch.dropPages(tag(HousesService.LOCATION_TAG, HousesService.LOCATION_PAGES_TAG, house.getLocation()));
+            if (house.getDiscount() != null && house.getDiscount() > 0)
+                batch.dropPages(HousesService.DISCOUNT_PAGES_TAG);
+        }
+    }
+
+    private void questionChanged(OperationType operation, Map<String, String> previous, Map<String, String> current,
+                                 boolean known, Batch batch) {
+        String id = idOf(previous, current);
+        if (operation != OperationType.INSERT && id != null)
+            batch.evict(QuestionService.QUESTION_PREFIX, id);
+
+        if (!known) {
+            batch.dropPages(QuestionService.HOUSE_QUESTIONS_PAGES_TAG);
+            return;
+        }
+        for (var question : List.of(Optional.ofNullable(previous), Optional.ofNullable(current)))
+            question.ifPresent(q -> batch.dropPages(tag(QuestionService.HOUSE_QUESTIONS_TAG,
+                    QuestionService.HOUSE_QUESTIONS_PAGES_TAG, q.get(HOUSE_ID))));
+    }
+
+    private void userChanged(OperationType operation, Map<String, String> previous, Map<String, String> current,
+                             Batch batch) {
+        String id = idOf(previous, current);
+        if (operation != OperationType.INSERT && id != null)
+            batch.evict(UsersService.USER_PREFIX, id);
+    }
+
+    /**
+     * Keeps the last houses created, newest first
+     */
+    private void updateNewHouses(OperationType operation, String id, HouseDAO house) throws JsonProcessingException {
+        var houses = Cache.getListFromCache(HousesService.NEW_HOUSES_PREFIX, HouseDAO.class);
+        var updated = replace(houses, id, house, operation == OperationType.INSERT, NEW_HOUSES_LIMIT);
+        if (updated != null)
+            Cache.replaceListInCache(updated, HousesService.NEW_HOUSES_PREFIX, 0);
+    }
+
+    /**
+     * Keeps the last houses put in discount, newest first
+     */
+    private void updateMostRecentDiscounts(OperationType operation, String id, HouseDAO house) throws JsonProcessingException {
+        var houses = Cache.getListFromCache(HousesService.MOST_RECENT_DISCOUNTS, House.class);
+        boolean discounted = house != null && house.getDiscount() != null && house.getDiscount() > 0;
+        boolean listed = houses.stream().anyMatch(h -> h.getId().equals(id));
+
+        var updated = replace(houses, id, discounted ? house.toHouse() : null, discounted && !listed,
+                MongoDBLayer.HOUSES_LIMIT);
+        if (updated != null)
+            Cache.replaceListInCache(updated, HousesService.MOST_RECENT_DISCOUNTS, MOST_RECENT_DISCOUNTS_EXPIRE_TIME);
+    }
+
+    /**
+     * Puts the new version of an element in a feed: in front if it is new, in its place if it was there,
+     * and removes it if there is no new version. Returns null if the feed does not change.
+     */
+    private static <T extends HasId> List<T> replace(List<T> feed, String id, T element,
+                                                                 boolean isNew, int limit) {
+        if (id == null)
+            return null;
+
+        List<T> updated = new ArrayList<>(feed.size() + 1);
+        boolean changed = false;
+        if (isNew && element != null) {
+            updated.add(element);
+            changed = true;
+        }
+        for (T existing : feed) {
+            if (!existing.getId().equals(id)) {
+                updated.add(existing);
+            } else if (!changed && element != null) {
+                updated.add(element);
+                changed = true;
+            } else {
+                changed = true;
+            }
+        }
+        if (!changed)
+            return null;
+        return updated.size() > limit ? updated.subList(0, limit) : updated;
+    }
+
+    /**
+     * The fields of a document that decide which cached pages contain it
+     */
+    private static Map<String, String> shadowOf(String collection, RawBsonDocument document) {
+        var fields = switch (collection) {
+            case HousesService.COLLECTION -> List.of(ID, LOCATION, OWNER_ID, DISCOUNT);
+            case RentalService.COLLECTION -> List.of(ID, HOUSE_ID, USER_ID);
+            case QuestionService.COLLECTION -> List.of(ID, HOUSE_ID);
+            default -> List.of(ID);
+        };
+        Map<String, String> shadow = new HashMap<>();
+        for (String field : fields) {
+            BsonValue value = document.get(field);
+            if (value == null || value.isNull())
+                continue;
+            shadow.put(field, value.isString() ? value.asString().getValue()
+                    : value.isInt32() ? Integer.toString(value.asInt32().getValue()) : value.toString());
+        }
+        return shadow;
+    }
+
+    /**
+     * Tag of the pages of one value, or of all pages of the kind if the value is not known
+     */
+    private static String tag(String format, String all, String value) {
+        return value == null ? all : String.format(format, value);
+    }
+
+    private static boolean hasDiscount(Map<String, String> house) {
+        String discount = house.get(DISCOUNT);
+        return discount != null && Integer.parseInt(discount) > 0;
+    }
+
+    private static String idOf(Map<String, String> previous, Map<String, String> current) {
+        if (current != null && current.get(ID) != null)
+            return current.get(ID);
+        return previous == null ? null : previous.get(ID);
+    }
+
+    private static String keyOf(BsonValue id) {
+        if (id.isObjectId())
+            return id.asObjectId().getValue().toHexString();
+        if (id.isString())
+            return id.asString().getValue();
+        return id.toString();
+    }
+
+    private static BsonDocument resumeToken() {
+        String token = Cache.getValue(RESUME_TOKEN_KEY);
+        return token == null ? null : BsonDocument.parse(token);
+    }
+
+    /**
+     * Changes were missed, so nothing that is cached can be trusted to be up to date
+     */
+    private void startOver() {
+        Cache.delete(RESUME_TOKEN_KEY);
+        var batch = new Batch();
+        dropAllPages(batch);
+        batch.flush();
+        Cache.delete(HousesService.NEW_HOUSES_PREFIX);
+        Cache.delete(HousesService.MOST_RECENT_DISCOUNTS);
+    }
+
+    private static void dropAllPages(Batch batch) {
+        batch.dropPages(HousesService.LOCATION_PAGES_TAG);
+        batch.dropPages(HousesService.DISCOUNT_PAGES_TAG);
+        batch.dropPages(UsersService.OWNER_PAGES_TAG);
+        batch.dropPages(UsersService.RENTER_PAGES_TAG);
+        batch.dropPages(RentalService.HOUSE_RENTALS_PAGES_TAG);
+        batch.dropPages(QuestionService.HOUSE_QUESTIONS_PAGES_TAG);
+    }
+
+    private void pause() {
+        try {
+            Thread.sleep(LEASE_TIME / 3);
+        } catch (InterruptedException e) {
+            running = false;
+        }
+    }
+
+    /**
+     * Invalidations collected from a run of changes, applied once each
+     */
+    private static class Batch {
+        private final Set<String> tags = new LinkedHashSet<>();
+        private final Map<String, Set<String>> documents = new HashMap<>();
+        private int size;
+
+        void dropPages(String tag) {
+            tags.add(tag);
+            size++;
+        }
+
+        void evict(String prefix, String id) {
+            documents.computeIfAbsent(prefix, p -> new LinkedHashSet<>()).add(id);
+            size++;
+        }
+
+        int size() {
+            return size;
+        }
+
+        void flush() {
+            for (var entry : documents.entrySet())
+                Cache.deleteAllFromCache(entry.getKey(), new ArrayList<>(entry.getValue()));
+            Cache.invalidateTag(tags.toArray(new String[0]));
+            tags.clear();
+            documents.clear();
+            size = 0;
+        }
+    }
+}
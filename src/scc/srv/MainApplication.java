@@ -4,6 +4,7 @@ import java.util.HashSet;
 import java.util.Set;
 
 import jakarta.ws.rs.core.Application;
+import scc.srv.authentication.SessionRefreshFilter;
 import scc.srv.houses.HousesResource;
 import scc.srv.media.MediaResource;
 import scc.srv.question.QuestionResource;
@@ -20,6 +21,7 @@ public class MainApplication extends Application {
         resources.add(RentalResource.class);
         resources.add(QuestionResource.class);
         singletons.add(new MediaResource());
+        singletons.add(new SessionRefreshFilter());
     }
 
     @Override
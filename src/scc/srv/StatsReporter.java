@@ -0,0 +1,70 @@
+package scc.srv;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import scc.cache.Cache;
+import scc.srv.media.MediaCache;
+
+/**
+ * Logs the hit and miss counters of the in-process caches periodically
+ */
+public class StatsReporter implements Runnable {
+
+    private static final Logger log = LoggerFactory.getLogger(StatsReporter.class);
+
+    private static final long REPORT_INTERVAL = 60 * 1000; // 1 minute
+
+    private static final StatsReporter instance = new StatsReporter();
+
+    private volatile boolean running;
+    private Thread thread;
+
+    private StatsReporter() {
+    }
+
+    public static StatsReporter getInstance() {
+        return instance;
+    }
+
+    public void start() {
+        running = true;
+        thread = new Thread(this, "stats-reporter");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    public void stop() {
+        running = false;
+        if (thread != null)
+            thread.interrupt();
+    }
+
+    @Override
+    public void run() {
+        while (running) {
+            try {
+                Thread.sleep(REPORT_INTERVAL);
+            } catch (InterruptedException e) {
+                return;
+            }
+            report();
+        }
+    }
+
+    private void report() {
+        if (!log.isInfoEnabled())
+            return;
+
+        for (var prefix : Cache.getNearCacheStats().entrySet()) {
+            var stats = prefix.getValue();
+            log.info("near cache {} hits={} misses={}", prefix.getKey(), stats.getHits(), stats.getMisses());
+        }
+
+        var media = MediaCache.getInstance();
+        if (media.isEnabled()) {
+            var stats = media.getStats();
+            log.info("media cache hits={} misses={} hitRatio={} files={} residentBytes={}", stats.hits(),
+                    stats.misses(), String.format("%.3f", stats.hitRatio()), stats.files(), stats.residentBytes());
+        }
+    }
+}
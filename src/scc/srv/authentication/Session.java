@@ -4,19 +4,19 @@ import scc.srv.utils.HasId;
 
 public class Session implements HasId {
 
-    public static final String SESSION_PREFIX = "s:";
-
     public static final String SESSION = "scc:session";
 
     private String sessionId;
     private String userId;
+    private long expiresAt;
 
     public Session() {
     }
 
-    public Session(String sessionId, String userId) {
+    public Session(String sessionId, String userId, long expiresAt) {
         this.sessionId = sessionId;
         this.userId = userId;
+        this.expiresAt = expiresAt;
     }
 
     public String getSessionId() {
@@ -35,11 +35,20 @@ public class Session implements HasId {
         this.userId = userId;
     }
 
+    public long getExpiresAt() {
+        return expiresAt;
+    }
+
+    public void setExpiresAt(long expiresAt) {
+        this.expiresAt = expiresAt;
+    }
+
     @Override
     public String toString() {
         return "Session{" +
                 "sessionId='" + sessionId + '\'' +
                 ", userId='" + userId + '\'' +
+                ", expiresAt=" + expiresAt +
                 '}';
     }
 }
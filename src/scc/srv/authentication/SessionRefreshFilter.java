@@ -0,0 +1,26 @@
+package scc.srv.authentication;
+
+import jakarta.ws.rs.container.ContainerRequestContext;
+import jakarta.ws.rs.container.ContainerResponseContext;
+import jakarta.ws.rs.container.ContainerResponseFilter;
+import jakarta.ws.rs.core.HttpHeaders;
+import jakarta.ws.rs.ext.Provider;
+
+/**
+ * Slides the expiry of the sessions: a valid token past half of its lifetime is replaced in the response
+ * by one that expires a full session time later.
+ */
+@Provider
+public class SessionRefreshFilter implements ContainerResponseFilter {
+
+    @Override
+    public void filter(ContainerRequestContext request, ContainerResponseContext response) {
+        var cookie = request.getCookies().get(Session.SESSION);
+        if (cookie == null || response.getHeaders().containsKey(HttpHeaders.SET_COOKIE))
+            return;
+
+        var session = Sessions.verify(cookie.getValue());
+        if (session != null && Sessions.needsRefresh(session))
+            response.getHeaders().add(HttpHeaders.SET_COOKIE, Sessions.cookie(Sessions.refresh(session)));
+    }
+}
@@ -0,0 +1,163 @@
+package scc.srv.authentication;
+
+import jakarta.ws.rs.core.NewCookie;
+import scc.cache.Cache;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Issues and verifies session tokens.
+ * <p>
+ * A token holds the user id, the session id and the expiry time, signed with HMAC-SHA256 (see
+ * {@link TokenSigner}), so it is verified locally without going to Redis. Redis only keeps the set of users
+ * whose tokens were all revoked, which every replica loads at startup and keeps up to date in memory
+ * through a pub/sub channel. While that channel is not subscribed, revocations are looked up in Redis.
+ * <p>
+ * Sessions slide: once half of its lifetime has passed, a token used in a request is replaced by one
+ * with a new expiry (see {@link SessionRefreshFilter}).
+ * <p>
+ * The signing key is read from SESSION_SECRET, which must be the same in every replica and survive
+ * restarts, so the application does not start without it.
+ */
+public class Sessions {
+
+    public static final int SESSION_TTL = 3600; // seconds
+
+    private static final String SESSION_SECRET = System.getenv("SESSION_SECRET");
+
+    // Outside the namespaces of the cached resources, none of which a user id can turn into this key
+    private static final String REVOKED_USERS = "revoked:users";
+    private static final String REVOCATION_CHANNEL = "session:revoke";
+
+    private static final TokenSigner signer = new TokenSigner(secret());
+
+    // User id -> latest expiry of the tokens issued before it was revoked. Tokens that expire by then are invalid.
+    private static final Map<String, Long> revokedUsers = new ConcurrentHashMap<>();
+    // Whether revokedUsers is up to date, which is only while the channel is subscribed
+    private static volatile boolean synced;
+
+    private Sessions() {
+    }
+
+    /**
+     * Starts a session for the user and returns its token
+     */
+    public static String issue(String userId) {
+        return signer.sign(new Session(UUID.randomUUID().toString(), userId, expiry()));
+    }
+
+    /**
+     * Returns the session of a token, or null if the token is forged, expired or revoked
+     */
+    public static Session verify(String token) {
+        var session = signer.verify(token, System.currentTimeMillis());
+        if (session == null || isRevoked(session))
+            return null;
+        return session;
+    }
+
+    public static boolean needsRefresh(Session session) {
+        return session.getExpiresAt() - System.currentTimeMillis() < SESSION_TTL * 1000L / 2;
+    }
+
+    /**
+     * Extends the session and returns its new token
+     */
+    public static String refresh(Session session) {
+        return signer.sign(new Session(session.getSessionId(), session.getId(), expiry()));
+    }
+
+    /**
+     * Makes every token issued to the user until now invalid in every replica. Tokens issued afterwards
+     * are valid.
+     */
+    public static void revokeAll(String userId) {
+        long until = expiry();
+        revokedUsers.put(userId, until);
+        Cache.addToExpiringSet(REVOKED_USERS, userId, until);
+        Cache.publish(REVOCATION_CHANNEL, until + " " + userId);
+    }
+
+    public static NewCookie cookie(String token) {
+        return new NewCookie.Builder(Session.SESSION)
+                .value(token)
+                .path("/")
+                .comment("sessionid")
+                .maxAge(SESSION_TTL)
+                .secure(false)
+                .httpOnly(true)
+                .build();
+    }
+
+    /**
+     * Tokens are always issued SESSION_TTL before they expire, so a token was issued before its user was
+     * revoked if it expires no later than the tokens issued then
+     */
+    private static boolean isRevoked(Session session) {
+        var userRevokedUntil = synced
+                ? revokedUsers.get(session.getId())
+                : Cache.getExpiringSetMember(REVOKED_USERS, session.getId());
+        return userRevokedUntil != null && session.getExpiresAt() <= userRevokedUntil;
+    }
+
+    /**
+     * Loads the revoked users and starts following the revocations of the other replicas. Called when
+     * the application starts, before any token is verified.
+     */
+    public static void start() {
+        Cache.subscribe(REVOCATION_CHANNEL, Sessions::onSubscribe, Sessions::onDisconnect, Sessions::onRevoked);
+        loadRevoked();
+    }
+
+    /**
+     * Reloads the revoked users, since the revocations published while disconnected are lost. Messages
+     * are only delivered after this returns, so none of them is overwritten.
+     */
+    private static void onSubscribe() {
+        loadRevoked();
+        synced = true;
+    }
+
+    private static void onDisconnect() {
+        synced = false;
+    }
+
+    private static void loadRevoked() {
+        dropExpired();
+        Cache.getExpiringSet(REVOKED_USERS).forEach((userId, until) -> revokedUsers.merge(userId, until, Math::max));
+    }
+
+    /**
+     * A message is the time until which the revocation lasts and the user id
+     */
+    private static void onRevoked(String message) {
+        dropExpired();
+        var fields = message.split(" ", 2);
+        revokedUsers.merge(fields[1], Long.parseLong(fields[0]), Math::max);
+    }
+
+    private static void dropExpired() {
+        long now = System.currentTimeMillis();
+        revokedUsers.values().removeIf(expiresAt -> expiresAt < now);
+    }
+
+    private static long expiry() {
+        return System.currentTimeMillis() + SESSION_TTL * 1000L;
+    }
+
+    /**
+     * Fails if the signing key is not configured
+     */
+    public static void checkSecret() {
+        if (SESSION_SECRET == null || SESSION_SECRET.isBlank())
+            throw new IllegalStateException("SESSION_SECRET is not set");
+    }
+
+    private static byte[] secret() {
+        checkSecret();
+        return SESSION_SECRET.getBytes(StandardCharsets.UTF_8);
+    }
+}
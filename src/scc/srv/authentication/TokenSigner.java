@@ -0,0 +1,88 @@
+package scc.srv.authentication;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.util.Base64;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Signs sessions into tokens and reads them back, with HMAC-SHA256.
+ * <p>
+ * A token is the base64 user id, the session id and the expiry time, followed by the signature of the three.
+ * Macs are borrowed from a lock-free pool, like the digests of {@link scc.utils.Hash}, since in the virtual
+ * thread mode a per-thread Mac would be created for every request.
+ */
+class TokenSigner {
+
+    private static final String ALGORITHM = "HmacSHA256";
+
+    private static final Base64.Encoder encoder = Base64.getUrlEncoder().withoutPadding();
+    private static final Base64.Decoder decoder = Base64.getUrlDecoder();
+
+    private final SecretKeySpec key;
+    private final Queue<Mac> macs = new ConcurrentLinkedQueue<>();
+
+    TokenSigner(byte[] secret) {
+        this.key = new SecretKeySpec(secret, ALGORITHM);
+    }
+
+    String sign(Session session) {
+        String payload = encoder.encodeToString(session.getId().getBytes(StandardCharsets.UTF_8))
+                + "." + session.getSessionId() + "." + session.getExpiresAt();
+        return payload + "." + encoder.encodeToString(hmac(payload));
+    }
+
+    /**
+     * Returns the session of a token, or null if the token is malformed, forged or expired at the given time
+     */
+    Session verify(String token, long now) {
+        if (token == null)
+            return null;
+
+        int sep = token.lastIndexOf('.');
+        if (sep < 0)
+            return null;
+
+        String payload = token.substring(0, sep);
+        try {
+            byte[] signature = decoder.decode(token.substring(sep + 1));
+            if (!MessageDigest.isEqual(signature, hmac(payload)))
+                return null;
+
+            var fields = payload.split("\\.");
+            if (fields.length != 3)
+                return null;
+
+            var session = new Session(fields[1], new String(decoder.decode(fields[0]), StandardCharsets.UTF_8),
+                    Long.parseLong(fields[2]));
+            return session.getExpiresAt() < now ? null : session;
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    private byte[] hmac(String payload) {
+        var mac = macs.poll();
+        if (mac == null)
+            mac = newMac();
+        try {
+            return mac.doFinal(payload.getBytes(StandardCharsets.UTF_8));
+        } finally {
+            macs.offer(mac);
+        }
+    }
+
+    private Mac newMac() {
+        try {
+            Mac mac = Mac.getInstance(ALGORITHM);
+            mac.init(key);
+            return mac;
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
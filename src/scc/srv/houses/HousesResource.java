@@ -2,7 +2,6 @@ package scc.srv.houses;
 
 
 import com.fasterxml.jackson.core.JsonProcessingException;
-import com.fasterxml.jackson.databind.ObjectMapper;
 import com.mongodb.MongoException;
 import jakarta.ws.rs.WebApplicationException;
 import jakarta.ws.rs.core.Cookie;
@@ -10,48 +9,52 @@ import jakarta.ws.rs.core.Response;
 import scc.cache.Cache;
 import scc.data.*;
 import scc.db.MongoDBLayer;
+import scc.db.PageCursor;
 import scc.srv.question.QuestionService;
 import scc.srv.rentals.RentalService;
 import scc.srv.users.UsersService;
+import scc.srv.utils.IoExecutor;
 import scc.srv.utils.Utility;
+import scc.srv.utils.ValidationPipeline;
 import scc.srv.utils.Validations;
 
 import java.time.Instant;
 import java.time.temporal.ChronoUnit;
 import java.util.*;
-import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
 
+import static scc.srv.utils.IoExecutor.async;
 import static scc.srv.utils.Utility.*;
 
 public class HousesResource extends Validations implements HousesService {
 
     private final MongoDBLayer db = MongoDBLayer.getInstance();
-    private static final ObjectMapper mapper = new ObjectMapper();
 
     @Override
-    public Response createHouse(Cookie session, HouseDAO houseDAO) throws Exception {
-        try {
-            houseDAO.setId(UUID.randomUUID().toString());
-            checkHouseCreation(session, houseDAO);
+    public CompletionStage<Response> createHouse(Cookie session, HouseDAO houseDAO) {
+        return async(() -> {
+            try {
+                houseDAO.setId(UUID.randomUUID().toString());
+                checkHouseCreation(session, houseDAO);
 
-            if (Validations.houseExists(houseDAO.getId()) != null)
-                return sendResponse(CONFLICT, HOUSE_MSG, houseDAO.getId());
+                if (Validations.hasHouse(houseDAO.getId()))
+                    return sendResponse(CONFLICT, HOUSE_MSG, houseDAO.getId());
 
-            houseDAO.setRentalsCounter(0);
+                houseDAO.setRentalsCounter(0);
 
-            db.create(houseDAO, HousesService.COLLECTION);
+                db.create(houseDAO, HousesService.COLLECTION);
 
-            Cache.putInCache(houseDAO, HOUSE_PREFIX);
-            String key = String.format(UsersService.USER_HOUSES_PREFIX, houseDAO.getOwnerId(), "0");
-            Cache.addToListInCache(houseDAO, key);
+                Cache.putInCache(houseDAO, HOUSE_PREFIX);
+                Cache.invalidateTag(pageTags(new HouseSummary(houseDAO)));
 
-            return sendResponse(OK, houseDAO.toHouse());
+                return sendResponse(OK, houseDAO.toHouse());
 
-        } catch (MongoException ex) {
-            return Response.status(500).entity(ex.getMessage()).build();
-        } catch (WebApplicationException ex) {
-            return handleCreateException(ex.getResponse().getStatus(), ex.getMessage(), houseDAO);
-        }
+            } catch (MongoException ex) {
+                return Response.status(500).entity(ex.getMessage()).build();
+            } catch (WebApplicationException ex) {
+                return handleCreateException(ex.getResponse().getStatus(), ex.getMessage(), houseDAO);
+            }
+        });
     }
 
     private void checkHouseCreation(Cookie session, HouseDAO houseDAO) throws Exception {
@@ -63,40 +66,42 @@ public class HousesResource extends Validations implements HousesService {
                 houseDAO.getDiscount().toString()) || houseDAO.getPrice() <= 0 || houseDAO.getDiscount() < 0 || houseDAO.getDiscount() >= houseDAO.getPrice())
             throw new WebApplicationException(BAD_REQUEST_MSG, Response.Status.BAD_REQUEST);
 
-        if (!Validations.mediaExists(houseDAO.getPhotosIds()))
-            throw new WebApplicationException(MEDIA_MSG, Response.Status.NOT_FOUND);
-
-        if (Validations.userExists(houseDAO.getOwnerId()) == null)
-            throw new WebApplicationException(USER_MSG, Response.Status.NOT_FOUND);
+        new ValidationPipeline()
+                .check(() -> Validations.mediaExists(houseDAO.getPhotosIds()), MEDIA_MSG, Response.Status.NOT_FOUND)
+                .check(() -> Validations.hasUser(houseDAO.getOwnerId()), USER_MSG, Response.Status.NOT_FOUND)
+                .run();
     }
 
     @Override
-    public Response deleteHouse(Cookie session, String id) throws Exception {
-        try {
-            var checks = checkHouseDeletion(session, id);
-            if (checks.getStatus() != Response.Status.OK.getStatusCode())
-                return checks;
+    public CompletionStage<Response> deleteHouse(Cookie session, String id) {
+        return async(() -> {
+            try {
+                var checks = checkHouseDeletion(session, id);
+                if (checks.getStatus() != Response.Status.OK.getStatusCode())
+                    return checks;
 
-            db.delete(id, HousesService.COLLECTION);
+                db.delete(id, HousesService.COLLECTION);
 
-            Cache.deleteFromCache(HOUSE_PREFIX, id);
+                Cache.deleteFromCache(HOUSE_PREFIX, id);
+                Cache.invalidateTag(pageTags((HouseSummary) checks.getEntity(),
+                        String.format(RentalService.HOUSE_RENTALS_TAG, id),
+                        String.format(QuestionService.HOUSE_QUESTIONS_TAG, id)));
 
-            deleteHouseRentals(id);
+                deleteHouseRentals(id);
+                availability.removeHouse(id);
 
-            return sendResponse(OK, String.format(RESOURCE_WAS_DELETED, HOUSE_MSG, id));
+                return sendResponse(OK, String.format(RESOURCE_WAS_DELETED, HOUSE_MSG, id));
 
-        } catch (MongoException ex) {
-            return Response.status(500).entity(ex.getMessage()).build();
-        }
+            } catch (MongoException ex) {
+                return Response.status(500).entity(ex.getMessage()).build();
+            }
+        });
     }
 
     private void deleteHouseRentals(String id) {
-        CompletableFuture.runAsync(() -> {
-            var houseRentals = db.getAllHouseRentals(id);
-            for (var rental : houseRentals) {
-                db.delete(rental.getId(), RentalService.COLLECTION);
-            }
-            Cache.deleteAllFromCache(RentalService.RENTAL_PREFIX, houseRentals.stream().map(RentalDAO::getId).toList());
+        IoExecutor.background(() -> {
+            var rentalIds = db.deleteHouseRentals(id);
+            Cache.deleteAllFromCache(RentalService.RENTAL_PREFIX, rentalIds);
         });
     }
 
@@ -104,50 +109,63 @@ public class HousesResource extends Validations implements HousesService {
         if (Validations.badParams(id))
             return sendResponse(BAD_REQUEST, BAD_REQUEST_MSG);
 
-        var house = Validations.houseExists(id);
+        var house = Validations.houseSummary(id);
         if (house == null)
             return sendResponse(NOT_FOUND, HOUSE_MSG, id);
 
         String ownerId = house.getOwnerId();
-
         var checkCookies = checkUserSession(session, ownerId);
         if (checkCookies.getStatus() != Response.Status.OK.getStatusCode())
             return checkCookies;
 
-        var user = Validations.userExists(ownerId);
-        if (user == null)
+        if (!Validations.hasUser(ownerId))
             return sendResponse(NOT_FOUND, USER_MSG, ownerId);
 
-        return Response.status(Response.Status.OK).build();
+        return Response.ok(house).build();
+    }
+
+    /**
+     * Tags of the cached pages that list the house, and any other given tags
+     */
+    private static String[] pageTags(HouseSummary house, String... others) {
+        List<String> tags = new ArrayList<>(List.of(others));
+        tags.add(String.format(LOCATION_TAG, house.getLocation()));
+        tags.add(String.format(UsersService.OWNER_TAG, house.getOwnerId()));
+        if (house.getDiscount() != null && house.getDiscount() > 0)
+            tags.add(DISCOUNT_PAGES_TAG);
+        return tags.toArray(new String[0]);
     }
 
     @Override
-    public Response getHouse(String id) throws Exception {
-        if (Validations.badParams(id))
-            return sendResponse(BAD_REQUEST, BAD_REQUEST_MSG);
+    public CompletionStage<Response> getHouse(String id) {
+        return async(() -> {
+            if (Validations.badParams(id))
+                return sendResponse(BAD_REQUEST, BAD_REQUEST_MSG);
 
-        try {
-            var house = Validations.houseExists(id);
-            if (house == null)
-                return sendResponse(NOT_FOUND, HOUSE_MSG, id);
+            try {
+                var house = Validations.houseExists(id);
+                if (house == null)
+                    return sendResponse(NOT_FOUND, HOUSE_MSG, id);
 
-            Cache.putInCache(house, HOUSE_PREFIX);
+                Cache.putInCache(house, HOUSE_PREFIX);
 
-            load5Houseuestions(id);
+                load5Houseuestions(id);
 
-            return sendResponse(OK, house.toHouse());
+                return sendResponse(OK, house.toHouse());
 
-        } catch (MongoException ex) {
-            return processException(ex.getCode(), ex.getMessage());
-        }
+            } catch (MongoException ex) {
+                return processException(ex.getCode(), ex.getMessage());
+            }
+        });
     }
 
     private void load5Houseuestions(String houseId) {
-        CompletableFuture.runAsync(() -> {
-            var questions = db.getHouseQuestions(houseId, 0);
+        IoExecutor.background(() -> {
+            String key = String.format(QuestionService.QUESTIONS_LIST_PREFIX, houseId, "0");
             try {
-                String key = String.format(QuestionService.QUESTIONS_LIST_PREFIX, houseId, "0");
-                Cache.putListInCache(questions, key);
+                Cache.loadList(key, () -> db.getHouseQuestions(houseId, 0),
+                        String.format(QuestionService.HOUSE_QUESTIONS_TAG, houseId),
+                        QuestionService.HOUSE_QUESTIONS_PAGES_TAG);
             } catch (JsonProcessingException e) {
                 throw new RuntimeException(e);
             }
@@ -155,123 +173,118 @@ public class HousesResource extends Validations implements HousesService {
     }
 
     @Override
-    public Response updateHouse(Cookie session, String id, House house) throws Exception {
-        try {
-            var updatedHouse = genUpdatedHouse(session, id, house);
+    public CompletionStage<Response> updateHouse(Cookie session, String id, House house) {
+        return async(() -> {
+            try {
+                var previous = houseToUpdate(id);
+                var stalePages = pageTags(new HouseSummary(previous));
+                var updatedHouse = genUpdatedHouse(session, previous, house);
 
-            db.update(id, updatedHouse, COLLECTION);
+                db.update(id, updatedHouse, COLLECTION);
 
-            Cache.putInCache(updatedHouse, HOUSE_PREFIX);
+                Cache.putInCache(updatedHouse, HOUSE_PREFIX);
+                Cache.invalidateTag(pageTags(new HouseSummary(updatedHouse), stalePages));
 
-            return sendResponse(OK, updatedHouse.toHouse());
+                return sendResponse(OK, updatedHouse.toHouse());
 
-        } catch (MongoException ex) {
-            return Response.status(500).entity(ex.getMessage()).build();
-        } catch (WebApplicationException ex) {
-            return handleUpdateException(ex.getResponse().getStatus(), ex.getMessage(), id);
-        }
+            } catch (MongoException ex) {
+                return Response.status(500).entity(ex.getMessage()).build();
+            } catch (WebApplicationException ex) {
+                return handleUpdateException(ex.getResponse().getStatus(), ex.getMessage(), id);
+            }
+        });
     }
 
     @Override
-    public Response listAllHouses() {
-        try {
-            var housesDocuments = db.getAll(HousesService.COLLECTION);
-
-            var houses = new ArrayList<>();
+    public CompletionStage<Response> listAllHouses(String accept) {
+        return async(() -> {
+            try {
+                return sendStream(db.getAll(HousesService.COLLECTION, HouseDAO.class), accept);
 
-            for (var doc : housesDocuments) {
-                houses.add(HouseDAO.fromDocument(doc));
+            } catch (MongoException ex) {
+                return processException(ex.getCode());
             }
-
-            return sendResponse(OK, houses);
-
-        } catch (MongoException ex) {
-            return processException(ex.getCode());
-        }
+        });
     }
 
     @Override
-    public Response getAvailableHouseByLocation(String location, int offset) {
-        try {
-            List<House> houses = new ArrayList<>();
-
-            String key = String.format(HOUSES_BY_LOCATION_PREFIX, location, offset);
-            var cacheHouses = Cache.getListFromCache(key);
-            if (!cacheHouses.isEmpty()) {
-                for (var house : cacheHouses) {
-                    houses.add(mapper.readValue(house, House.class));
-                }
-                return sendResponse(OK, houses);
-            }
+    public CompletionStage<Response> getAvailableHouseByLocation(String location, int offset, String cursor) {
+        return async(() -> {
+            if (Validations.badCursor(cursor))
+                return sendResponse(BAD_REQUEST, BAD_REQUEST_MSG);
 
-            houses = db.getHousesByLocation(location, offset);
+            try {
+                if (cursor != null) {
+                    var page = db.getHousesByLocationAfter(location, cursor);
+                    Date currentDate = Date.from(Instant.now());
+                    return sendPage(Validations.availableHouses(page, currentDate, currentDate),
+                            PageCursor.next(page, MongoDBLayer.HOUSES_LIMIT));
+                }
 
-            List<House> availableHouses = new ArrayList<>();
-            Date currentDate = Date.from(Instant.now());
+                Date currentDate = Date.from(Instant.now());
+                return sendResponse(OK, Validations.availableHouses(housesByLocation(location, offset),
+                        currentDate, currentDate));
 
-            for (var house : houses) {
-                if (Validations.isAvailable(house.getId(), currentDate, currentDate))
-                    availableHouses.add(house);
+            } catch (MongoException ex) {
+                return Response.status(500).entity(ex.getMessage()).build();
+            } catch (JsonProcessingException e) {
+                throw new RuntimeException(e);
             }
 
-            Cache.putListInCache(availableHouses, key);
+        });
+    }
 
-            return sendResponse(OK, availableHouses);
+    @Override
+    public CompletionStage<Response> getHouseByLocationPeriod(String location, String initialDate, String endDate, int offset, String cursor) {
+        return async(() -> {
+            if (Validations.badCursor(cursor))
+                return sendResponse(BAD_REQUEST, BAD_REQUEST_MSG);
 
-        } catch (MongoException ex) {
-            return Response.status(500).entity(ex.getMessage()).build();
-        } catch (JsonProcessingException e) {
-            throw new RuntimeException(e);
-        }
+            var startDate = Utility.formatDate(initialDate);
+            var finishDate = Utility.formatDate(endDate);
 
-    }
+            if (Validations.datesNotValid(startDate, finishDate))
+                return sendResponse(BAD_REQUEST, INVALID_DATES);
 
-    @Override
-    public Response getHouseByLocationPeriod(String location, String initialDate, String endDate, int offset) {
-        var startDate = Utility.formatDate(initialDate);
-        var finishDate = Utility.formatDate(endDate);
-
-        if (Validations.datesNotValid(startDate, finishDate))
-            return sendResponse(BAD_REQUEST, INVALID_DATES);
-
-        try {
-            List<House> availableHouses = new ArrayList<>();
-
-            String key = String.format(HOUSES_BY_LOCATION_PREFIX, location, offset);
-            var cacheHouses = Cache.getListFromCache(key);
-            if (!cacheHouses.isEmpty()) {
-                for (var jsonHouse : cacheHouses) {
-                    var house = mapper.readValue(jsonHouse, House.class);
-                    if (Validations.isAvailable(house.getId(), startDate, finishDate))
-                        availableHouses.add(house);
+            try {
+                if (cursor != null) {
+                    var page = db.getHousesByLocationAfter(location, cursor);
+                    return sendPage(Validations.availableHouses(page, startDate, finishDate),
+                            PageCursor.next(page, MongoDBLayer.HOUSES_LIMIT));
                 }
-                return sendResponse(OK, availableHouses);
-            }
 
-            var dbHouses = db.getHousesByLocation(location, offset);
+                return sendResponse(OK, Validations.availableHouses(housesByLocation(location, offset),
+                        startDate, finishDate));
 
-            for (House house : dbHouses) {
-                if (Validations.isAvailable(house.getId(), startDate, finishDate))
-                    availableHouses.add(house);
+            } catch (MongoException ex) {
+                return Response.status(500).entity(ex.getMessage()).build();
+            } catch (JsonProcessingException e) {
+                throw new RuntimeException(e);
             }
+        });
+    }
 
-            return sendResponse(OK, availableHouses);
-
-        } catch (MongoException ex) {
-            return Response.status(500).entity(ex.getMessage()).build();
-        } catch (JsonProcessingException e) {
-            throw new RuntimeException(e);
-        }
+    /**
+     * A page of the houses in a location, cached unfiltered so that every period is filtered from the same
+     * page, and the availability is always checked against the current bookings
+     */
+    private List<House> housesByLocation(String location, int offset) throws JsonProcessingException {
+        String key = String.format(HOUSES_BY_LOCATION_PREFIX, location, offset);
+        return Cache.getList(key, House.class, () -> db.getHousesByLocation(location, offset),
+                String.format(LOCATION_TAG, location), LOCATION_PAGES_TAG);
     }
 
-    private HouseDAO genUpdatedHouse(Cookie session, String id, House house) throws Exception {
+    private HouseDAO houseToUpdate(String id) {
         if (Validations.badParams(id))
             throw new WebApplicationException(BAD_REQUEST_MSG, Response.Status.BAD_REQUEST);
 
         var houseDAO = Validations.houseExists(id);
         if (houseDAO == null)
             throw new WebApplicationException(HOUSE_MSG, Response.Status.NOT_FOUND);
+        return houseDAO;
+    }
 
+    private HouseDAO genUpdatedHouse(Cookie session, HouseDAO houseDAO, House house) throws Exception {
         var checkCookies = checkUserSession(session, houseDAO.getOwnerId());
         if (checkCookies.getStatus() != Response.Status.OK.getStatusCode())
             throw new WebApplicationException(checkCookies.getEntity().toString(), Response.Status.UNAUTHORIZED);
@@ -314,68 +327,68 @@ public class HousesResource extends Validations implements HousesService {
     }
 
     @Override
-    public Response getNewHouses() {
-        //TODO -> CHECK IF WORKING // only works with azure functions
-        try {
-            var cacheHouses = Cache.getListFromCache(NEW_HOUSES_PREFIX);
-
-            List<HouseDAO> houses = new ArrayList<>();
-            for (String house : cacheHouses) {
-                houses.add(mapper.readValue(house, HouseDAO.class));
-            }
+    public CompletionStage<Response> getNewHouses() {
+        return async(() -> {
+            var houses = Cache.getListFromCache(NEW_HOUSES_PREFIX, HouseDAO.class);
 
             return sendResponse(OK, houses);
-
-        } catch (JsonProcessingException e) {
-            return processException(500);
-        }
+        });
     }
 
     @Override
-    public Response getHousesInDiscount(int offset) {
-        try {
-            List<House> houses = new ArrayList<>();
-
-            if (offset == -1) {
-                //return most recent houses in discount
-                var mostRecentDiscounts = Cache.getListFromCache(HousesService.MOST_RECENT_DISCOUNTS);
-                if (!mostRecentDiscounts.isEmpty()) {
-                    for (var house : mostRecentDiscounts) {
-                        houses.add(mapper.readValue(house, House.class));
-                    }
-                    return sendResponse(OK, houses);
-                }
-            }
+    public CompletionStage<Response> getHousesInDiscount(int offset, String cursor) {
+        return async(() -> {
+            if (Validations.badCursor(cursor))
+                return sendResponse(BAD_REQUEST, BAD_REQUEST_MSG);
 
-            String key = String.format(DISCOUNTED_HOUSES, offset);
-            var cacheHouses = Cache.getListFromCache(key);
-            if (!cacheHouses.isEmpty()) {
-                for (var house : cacheHouses) {
-                    houses.add(mapper.readValue(house, House.class));
+            try {
+                if (cursor != null) {
+                    var page = db.getHousesWithDiscountAfter(cursor);
+                    return sendPage(availableForAMonth(ownedHouses(page)), PageCursor.next(page, MongoDBLayer.HOUSES_LIMIT));
                 }
-                return sendResponse(OK, houses);
-            }
 
-            var housesWithDiscount = db.getHousesWithDiscount(offset);
-
-            for (House house : housesWithDiscount) {
-                if (!house.getOwnerId().equals(UsersService.DELETED_USER)) {
-                    var currentDate = Date.from(Instant.now());
-                    var oneMonthFromNow = Date.from(Instant.now().plus(30, ChronoUnit.DAYS));
-                    if (Validations.isAvailable(house.getId(), currentDate, oneMonthFromNow)) {
-                        houses.add(house);
+                if (offset == -1) {
+                    //return most recent houses in discount
+                    var mostRecentDiscounts = Cache.getListFromCache(HousesService.MOST_RECENT_DISCOUNTS, House.class);
+                    if (!mostRecentDiscounts.isEmpty()) {
+                        return sendResponse(OK, mostRecentDiscounts);
                     }
                 }
-            }
 
-            Cache.putListInCache(houses, key);
-            return sendResponse(OK, houses);
+                // Cached before the availability filter, like the location pages
+                String key = String.format(DISCOUNTED_HOUSES, offset);
+                var houses = Cache.getList(key, House.class, () -> ownedHouses(db.getHousesWithDiscount(offset)),
+                        DISCOUNT_PAGES_TAG);
+
+                return sendResponse(OK, availableForAMonth(houses));
 
-        } catch (MongoException ex) {
-            return Response.status(500).entity(ex.getMessage()).build();
-        } catch (JsonProcessingException e) {
-            return processException(500, "Error while parsing questions");
+            } catch (MongoException ex) {
+                return Response.status(500).entity(ex.getMessage()).build();
+            } catch (JsonProcessingException e) {
+                return processException(500, "Error while parsing questions");
+            }
+        });
+    }
+
+    /**
+     * The houses whose owner was not deleted
+     */
+    private static List<House> ownedHouses(List<House> houses) {
+        List<House> owned = new ArrayList<>();
+        for (House house : houses) {
+            if (!house.getOwnerId().equals(UsersService.DELETED_USER))
+                owned.add(house);
         }
+        return owned;
+    }
+
+    /**
+     * The houses that are available from now until 30 days from now, checked against the current bookings
+     */
+    private static List<House> availableForAMonth(List<House> houses) {
+        var currentDate = Date.from(Instant.now());
+        var oneMonthFromNow = Date.from(Instant.now().plus(30, ChronoUnit.DAYS));
+        return Validations.availableHouses(houses, currentDate, oneMonthFromNow);
     }
 
     private Response handleCreateException(int statusCode, String msg, HouseDAO houseDAO) {
@@ -2,11 +2,15 @@ package scc.srv.houses;
 
 import jakarta.ws.rs.*;
 import jakarta.ws.rs.core.Cookie;
+import jakarta.ws.rs.core.HttpHeaders;
 import jakarta.ws.rs.core.MediaType;
 import jakarta.ws.rs.core.Response;
 import scc.data.HouseDAO;
 import scc.data.House;
 import scc.srv.authentication.Session;
+import scc.srv.utils.Utility;
+
+import java.util.concurrent.CompletionStage;
 
 @Path(HousesService.PATH)
 public interface HousesService {
@@ -21,10 +25,16 @@ public interface HousesService {
     
     String MOST_RECENT_DISCOUNTS = "houses:disc";
 
-    String HOUSES_BY_LOCATION_PREFIX = "h:location:%s-off:%s";
+    // Pages of whole houses. The previous key held summaries without the description and photos.
+    String HOUSES_BY_LOCATION_PREFIX = "h:location-houses:%s-off:%s";
 
     String NEW_HOUSES_PREFIX = "newH:";
 
+    // Tags of the cached pages, to drop them all when a house changes (see Cache.invalidateTag)
+    String LOCATION_TAG = "t:location:%s";
+    String LOCATION_PAGES_TAG = "t:location";
+    String DISCOUNT_PAGES_TAG = "t:discount";
+
     String ID = "id";
 
     String QUESTION = "question";
@@ -45,51 +55,55 @@ public interface HousesService {
 
     String OFFSET = "offset";
 
+    String CURSOR = "cursor";
+
 
     @POST
     @Consumes(MediaType.APPLICATION_JSON)
     @Produces(MediaType.APPLICATION_JSON)
-    Response createHouse(@CookieParam(Session.SESSION) Cookie session, HouseDAO houseDAO) throws Exception;
+    CompletionStage<Response> createHouse(@CookieParam(Session.SESSION) Cookie session, HouseDAO houseDAO);
 
     @DELETE
     @Path("/{" + ID + "}")
     @Produces(MediaType.APPLICATION_JSON)
-    Response deleteHouse(@CookieParam(Session.SESSION) Cookie session, @PathParam(ID) String id) throws Exception;
+    CompletionStage<Response> deleteHouse(@CookieParam(Session.SESSION) Cookie session, @PathParam(ID) String id);
 
     @GET
     @Path("/{" + ID + "}")
     @Produces(MediaType.APPLICATION_JSON)
-    Response getHouse(@PathParam(ID) String id) throws Exception;
+    CompletionStage<Response> getHouse(@PathParam(ID) String id);
 
     @PUT
     @Path("/{" + ID + "}")
     @Consumes(MediaType.APPLICATION_JSON)
     @Produces(MediaType.APPLICATION_JSON)
-    Response updateHouse(@CookieParam(Session.SESSION) Cookie session, @PathParam(ID) String id, House house) throws Exception;
+    CompletionStage<Response> updateHouse(@CookieParam(Session.SESSION) Cookie session, @PathParam(ID) String id, House house);
 
     @GET
     @Path(ALL)
-    @Produces(MediaType.APPLICATION_JSON)
-    Response listAllHouses();
+    @Produces({MediaType.APPLICATION_JSON, Utility.APPLICATION_NDJSON})
+    CompletionStage<Response> listAllHouses(@HeaderParam(HttpHeaders.ACCEPT) String accept);
 
     @GET
     @Produces(MediaType.APPLICATION_JSON)
-    Response getAvailableHouseByLocation(@QueryParam(LOCATION) String location, @QueryParam(OFFSET) int offset);
+    CompletionStage<Response> getAvailableHouseByLocation(@QueryParam(LOCATION) String location, @QueryParam(OFFSET) int offset,
+                                                          @QueryParam(CURSOR) String cursor);
 
     @GET
     @Path(AVAILABLE)
     @Produces(MediaType.APPLICATION_JSON)
-    Response getHouseByLocationPeriod(@QueryParam(LOCATION) String location, @QueryParam(INITIAL_DATE) String initialDate,
-                                      @QueryParam(END_DATE) String endDate, @QueryParam(OFFSET) int offset);
+    CompletionStage<Response> getHouseByLocationPeriod(@QueryParam(LOCATION) String location, @QueryParam(INITIAL_DATE) String initialDate,
+                                                       @QueryParam(END_DATE) String endDate, @QueryParam(OFFSET) int offset,
+                                                       @QueryParam(CURSOR) String cursor);
 
     @GET
     @Path(NEW_HOUSES)
     @Produces(MediaType.APPLICATION_JSON)
-    Response getNewHouses();
+    CompletionStage<Response> getNewHouses();
 
     @GET
     @Path(DISCOUNT)
     @Produces(MediaType.APPLICATION_JSON)
-    Response getHousesInDiscount(@QueryParam(OFFSET) int offset);
+    CompletionStage<Response> getHousesInDiscount(@QueryParam(OFFSET) int offset, @QueryParam(CURSOR) String cursor);
 
 }
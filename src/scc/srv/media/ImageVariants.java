@@ -0,0 +1,162 @@
+package scc.srv.media;
+
+import scc.cache.SingleFlight;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Iterator;
+import java.util.Set;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Downscaled copies of the images, used as thumbnails.
+ * <p>
+ * A variant is generated the first time it is requested and kept next to the original, so it is never
+ * generated again, and concurrent first requests for it share a single generation. Files that are not
+ * images, are already narrower than the requested width, or have more than MAX_PIXELS pixels, are kept
+ * as they are.
+ * <p>
+ * Images are decoded subsampled, at no less than twice the requested width, and at most
+ * MAX_CONCURRENT_DECODES of them at a time, so that generating variants of a few different large uploads
+ * at once does not exhaust the heap.
+ */
+public class ImageVariants {
+
+    /**
+     * Widths that can be requested, so that clients can not fill the storage with arbitrary sizes
+     */
+    public static final Set<Integer> WIDTHS = Set.of(160, 320, 640, 1280);
+
+    // Larger images are not decoded, since a small compressed file can expand to gigabytes of pixels
+    private static final long MAX_PIXELS = 16_000_000;
+
+    private static final int MAX_CONCURRENT_DECODES = 2;
+
+    private static final Semaphore decodes = new Semaphore(MAX_CONCURRENT_DECODES);
+
+    private static final SingleFlight generating = new SingleFlight();
+
+    private ImageVariants() {
+    }
+
+    /**
+     * Writes the variant of the given width of the original file to the target path, unless it exists
+     */
+    static void generateOnce(Path original, Path target, int width) throws IOException {
+        try {
+            generating.load(target.toString(), () -> {
+                try {
+                    if (!Files.exists(target))
+                        generate(original, target, width);
+                    return target;
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    private static void generate(Path original, Path target, int width) throws IOException {
+        Path tmp = Files.createTempFile(target.getParent(), MediaStore.TMP_PREFIX, null);
+        try {
+            if (!downscaleBounded(original, tmp, width))
+                Files.copy(original, tmp, StandardCopyOption.REPLACE_EXISTING);
+            Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    private static boolean downscaleBounded(Path original, Path target, int width) throws IOException {
+        try {
+            decodes.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+        }
+        try {
+            return downscale(original, target, width);
+        } finally {
+            decodes.release();
+        }
+    }
+
+    private static boolean downscale(Path original, Path target, int width) throws IOException {
+        String format;
+        BufferedImage image;
+        try (ImageInputStream in = ImageIO.createImageInputStream(original.toFile())) {
+            if (in == null)
+                return false;
+            Iterator<ImageReader> readers = ImageIO.getImageReaders(in);
+            if (!readers.hasNext())
+                return false;
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(in);
+                format = reader.getFormatName().toLowerCase();
+                long originalWidth = reader.getWidth(0);
+                if (originalWidth <= width || originalWidth * reader.getHeight(0) > MAX_PIXELS)
+                    return false;
+
+                // Keeps every nth pixel while decoding, which leaves enough of them for a smooth downscale
+                int subsampling = (int) Math.max(1, originalWidth / (2L * width));
+                ImageReadParam param = reader.getDefaultReadParam();
+                param.setSourceSubsampling(subsampling, subsampling, 0, 0);
+                image = reader.read(0, param);
+            } finally {
+                reader.dispose();
+            }
+        }
+
+        if (image.getWidth() <= width)
+            return false;
+
+        int height = Math.max(1, (int) Math.round((double) image.getHeight() * width / image.getWidth()));
+        BufferedImage scaled = scale(image, width, height, hasAlpha(format) && image.getColorModel().hasAlpha());
+
+        return ImageIO.write(scaled, hasAlpha(format) ? format : "jpeg", target.toFile());
+    }
+
+    /**
+     * Halves the image with bilinear interpolation until it is close to the target size, which keeps
+     * the quality of a large reduction without the cost of a bicubic filter.
+     */
+    private static BufferedImage scale(BufferedImage image, int width, int height, boolean alpha) {
+        int type = alpha ? BufferedImage.TYPE_INT_ARGB : BufferedImage.TYPE_INT_RGB;
+        BufferedImage current = image;
+        int w = image.getWidth();
+        int h = image.getHeight();
+        do {
+            w = Math.max(width, w / 2);
+            h = Math.max(height, h / 2);
+
+            BufferedImage next = new BufferedImage(w, h, type);
+            Graphics2D g = next.createGraphics();
+            try {
+                g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+                g.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+                g.drawImage(current, 0, 0, w, h, null);
+            } finally {
+                g.dispose();
+            }
+            current = next;
+        } while (w != width || h != height);
+        return current;
+    }
+
+    private static boolean hasAlpha(String format) {
+        return format.equals("png") || format.equals("gif");
+    }
+}
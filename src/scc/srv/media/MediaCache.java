@@ -0,0 +1,220 @@
+package scc.srv.media;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * In-process cache of the most requested media files, kept off-heap in direct buffers.
+ * <p>
+ * The cache is bounded by the total size of the cached files. When it is full, a file is only admitted
+ * if it has been requested more often than the least recently used file it would evict, so a burst of
+ * one-off downloads does not flush the popular images. Request frequencies are estimated with a small
+ * count-min sketch that is halved periodically, so old popularity fades away.
+ * <p>
+ * It is disabled unless MEDIA_CACHE_MAX_SIZE is set to the number of bytes it may hold.
+ */
+public class MediaCache {
+
+    private static final String MEDIA_CACHE_MAX_SIZE = System.getenv("MEDIA_CACHE_MAX_SIZE");
+
+    private static final MediaCache instance =
+            new MediaCache(MEDIA_CACHE_MAX_SIZE == null ? 0 : Long.parseLong(MEDIA_CACHE_MAX_SIZE));
+
+    private final long maxSize;
+    private final long maxEntrySize;
+
+    private final LinkedHashMap<String, ByteBuffer> entries = new LinkedHashMap<>(64, 0.75f, true);
+    private long size;
+    private final Lock lock = new ReentrantLock();
+
+    private final FrequencySketch frequencies = new FrequencySketch(4096);
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    MediaCache(long maxSize) {
+        this.maxSize = maxSize;
+        this.maxEntrySize = Math.min(maxSize / 8, Integer.MAX_VALUE);
+    }
+
+    public static MediaCache getInstance() {
+        return instance;
+    }
+
+    public boolean isEnabled() {
+        return maxSize > 0;
+    }
+
+    /**
+     * Returns a read-only view of the cached file, or null if it is not cached
+     */
+    public ByteBuffer get(String id) {
+        if (!isEnabled())
+            return null;
+
+        ByteBuffer content;
+        lock.lock();
+        try {
+            frequencies.increment(id);
+            content = entries.get(id);
+        } finally {
+            lock.unlock();
+        }
+
+        if (content == null) {
+            misses.increment();
+            return null;
+        }
+        hits.increment();
+        return content.duplicate();
+    }
+
+    /**
+     * Reads the file into the cache if it is small enough and popular enough to be admitted.
+     *
+     * @return a read-only view of the cached file, or null if it was not admitted
+     */
+    public ByteBuffer load(String id, Path path, long fileSize) throws IOException {
+        if (!isEnabled() || fileSize > maxEntrySize || !admits(id, fileSize))
+            return null;
+
+        ByteBuffer content = ByteBuffer.allocateDirect((int) fileSize);
+        try (FileChannel file = FileChannel.open(path, StandardOpenOption.READ)) {
+            while (content.hasRemaining())
+                if (file.read(content) == -1)
+                    break;
+        }
+        content.flip();
+        content = content.asReadOnlyBuffer();
+
+        lock.lock();
+        try {
+            if (!entries.containsKey(id) && makeRoom(id, content.capacity())) {
+                entries.put(id, content);
+                size += content.capacity();
+            }
+        } finally {
+            lock.unlock();
+        }
+        return content.duplicate();
+    }
+
+    public Stats getStats() {
+        lock.lock();
+        try {
+            return new Stats(hits.sum(), misses.sum(), entries.size(), size);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private boolean admits(String id, long fileSize) {
+        lock.lock();
+        try {
+            if (size + fileSize <= maxSize)
+                return true;
+            var eldest = entries.keySet().iterator();
+            return eldest.hasNext() && frequencies.estimate(id) > frequencies.estimate(eldest.next());
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Evicts least recently used files until the new one fits, if all of them are less popular than it.
+     * Nothing is evicted unless the new file can be admitted.
+     */
+    private boolean makeRoom(String id, long fileSize) {
+        int candidateFrequency = frequencies.estimate(id);
+        int victims = 0;
+        long freed = 0;
+        for (var victim : entries.entrySet()) {
+            if (size - freed + fileSize <= maxSize)
+                break;
+            if (frequencies.estimate(victim.getKey()) >= candidateFrequency)
+                return false;
+            freed += victim.getValue().capacity();
+            victims++;
+        }
+        if (size - freed + fileSize > maxSize)
+            return false;
+
+        Iterator<Map.Entry<String, ByteBuffer>> it = entries.entrySet().iterator();
+        for (int i = 0; i < victims; i++) {
+            it.next();
+            it.remove();
+        }
+        size -= freed;
+        return true;
+    }
+
+    public record Stats(long hits, long misses, int files, long residentBytes) {
+
+        public double hitRatio() {
+            long requests = hits + misses;
+            return requests == 0 ? 0 : (double) hits / requests;
+        }
+    }
+
+    /**
+     * Count-min sketch of 4-bit counters. All counters are halved after a number of increments
+     * proportional to its width.
+     */
+    private static class FrequencySketch {
+        private static final int DEPTH = 4;
+        private static final int MAX_COUNT = 15;
+        private static final int[] SEEDS = {0x9E3779B9, 0x85EBCA6B, 0xC2B2AE35, 0x27D4EB2F};
+
+        private final byte[][] counters;
+        private final int mask;
+        private final int resetAfter;
+        private int increments;
+
+        FrequencySketch(int width) {
+            int w = Integer.highestOneBit(width);
+            counters = new byte[DEPTH][w];
+            mask = w - 1;
+            resetAfter = 10 * w;
+        }
+
+        void increment(String key) {
+            int hash = key.hashCode();
+            for (int i = 0; i < DEPTH; i++) {
+                int index = index(hash, i);
+                if (counters[i][index] < MAX_COUNT)
+                    counters[i][index]++;
+            }
+            if (++increments >= resetAfter)
+                halve();
+        }
+
+        int estimate(String key) {
+            int hash = key.hashCode();
+            int min = MAX_COUNT;
+            for (int i = 0; i < DEPTH; i++)
+                min = Math.min(min, counters[i][index(hash, i)]);
+            return min;
+        }
+
+        private int index(int hash, int row) {
+            int h = hash * SEEDS[row];
+            return (h ^ (h >>> 16)) & mask;
+        }
+
+        private void halve() {
+            for (byte[] row : counters)
+                for (int i = 0; i < row.length; i++)
+                    row[i] >>= 1;
+            increments /= 2;
+        }
+    }
+}
@@ -1,24 +1,24 @@
 package scc.srv.media;
 
-import com.azure.core.util.BinaryData;
-import com.azure.storage.blob.BlobClient;
-import com.azure.storage.blob.BlobContainerClient;
-import com.azure.storage.blob.BlobContainerClientBuilder;
-import com.azure.storage.blob.models.BlobItem;
-import com.fasterxml.jackson.databind.ObjectMapper;
-import jakarta.validation.constraints.Null;
 import jakarta.ws.rs.WebApplicationException;
-import jakarta.ws.rs.core.Cookie;
+import jakarta.ws.rs.core.HttpHeaders;
 import jakarta.ws.rs.core.Response;
-import scc.cache.Cache;
+import jakarta.ws.rs.core.StreamingOutput;
+import scc.db.PageCursor;
 import scc.utils.Hash;
 
-import java.io.File;
-import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.util.ArrayList;
-import java.util.Arrays;
+import java.nio.file.StandardOpenOption;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
 import java.util.List;
 
 import static scc.srv.utils.Utility.*;
@@ -28,68 +28,225 @@ import static scc.srv.utils.Utility.*;
  */
 public class MediaResource implements MediaService {
 
-    private static final String STORAGE_PATH = System.getenv("STORAGE_PATH");
+    private static final int IMAGES_LIMIT = 100;
 
-    public String upload(byte[] contents) {
+    private static final String IMMUTABLE = "public, max-age=31536000, immutable";
+    private static final String CONTENT_RANGE = "Content-Range";
+    private static final String ACCEPT_RANGES = "Accept-Ranges";
 
-        String id = Hash.of(contents);
-        Path path = Path.of(STORAGE_PATH + id);
+    private final MediaStore store = MediaStore.getInstance();
+
+    private final MediaCache hotMedia = MediaCache.getInstance();
+
+    /**
+     * Writes the upload to a temporary file while hashing it, so that only a small buffer is kept in memory,
+     * and then renames it to its id. If a file with the same content already exists the copy is dropped.
+     */
+    public String upload(InputStream contents) {
+        Path tmp = null;
         try {
+            tmp = Files.createTempFile(store.root(), MediaStore.TMP_PREFIX, null);
+
+            MessageDigest digest = Hash.newDigest();
+            try (OutputStream out = new DigestOutputStream(Files.newOutputStream(tmp), digest)) {
+                contents.transferTo(out);
+            }
 
-            Files.write(path, contents);
+            String id = Hash.toHex(digest.digest());
+            store.store(id, tmp);
 
-        } catch (Exception e) {
+            return id;
+
+        } catch (IOException e) {
             e.printStackTrace();
+            deleteQuietly(tmp);
+            throw new WebApplicationException(Response.Status.INTERNAL_SERVER_ERROR);
         }
-        return id;
     }
 
-    public Response download(String id) {
-        byte[] content = null;
-
+    private static void deleteQuietly(Path path) {
+        if (path == null)
+            return;
         try {
+            Files.deleteIfExists(path);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    public Response download(String id, String range, String ifNoneMatch, Integer width) {
+        if (width != null && !ImageVariants.WIDTHS.contains(width))
+            return sendResponse(BAD_REQUEST, BAD_REQUEST_MSG);
 
-            Path path = Path.of(STORAGE_PATH + id);
-            if (!Files.exists(path))
+        try {
+            if (!store.contains(id))
                 return sendResponse(NOT_FOUND, MEDIA_MSG, id);
 
-            content = Files.readAllBytes(path);
+            // The id is the hash of the content, so it is a strong ETag and the content never changes.
+            // It is checked first, so a revalidation reads nothing and generates nothing.
+            String key = width == null ? id : MediaStore.variantId(id, width);
+            String etag = "\"" + key + "\"";
+            if (ifNoneMatch != null && (ifNoneMatch.contains(etag) || ifNoneMatch.trim().equals("*")))
+                return cacheable(Response.notModified(), etag).build();
+
+            ByteBuffer cached = hotMedia.get(key);
+            Path path = null;
+            long size;
+            if (cached != null) {
+                size = cached.remaining();
+            } else {
+                path = width == null ? store.pathOf(id) : variant(id, width);
+                size = Files.size(path);
+                if (size == 0)
+                    return sendResponse(NOT_FOUND, MEDIA_MSG, id);
+
+                cached = hotMedia.load(key, path, size);
+            }
 
-            if (content.length == 0)
-                return sendResponse(NOT_FOUND, MEDIA_MSG, id);
+            var bytes = ByteRange.parse(range, size);
+            if (bytes == null)
+                return cacheable(Response.ok(content(cached, path, 0, size)), etag)
+                        .header(HttpHeaders.CONTENT_LENGTH, size)
+                        .build();
+
+            if (!bytes.satisfiable(size))
+                return Response.status(Response.Status.REQUESTED_RANGE_NOT_SATISFIABLE)
+                        .header(CONTENT_RANGE, "bytes */" + size)
+                        .build();
+
+            return cacheable(Response.status(Response.Status.PARTIAL_CONTENT), etag)
+                    .entity(content(cached, path, bytes.start, bytes.length()))
+                    .header(HttpHeaders.CONTENT_LENGTH, bytes.length())
+                    .header(CONTENT_RANGE, "bytes " + bytes.start + "-" + bytes.end + "/" + size)
+                    .build();
 
         } catch (Exception e) {
             e.printStackTrace();
+            return sendResponse(INTERNAL_SERVER_ERROR);
         }
+    }
 
-        return Response.ok(content).build();
+    /**
+     * Returns the path of a variant of the image, generating it if it is the first time it is requested
+     */
+    private Path variant(String id, int width) throws IOException {
+        Path path = store.variantPathOf(id, width);
+        if (!Files.exists(path))
+            ImageVariants.generateOnce(store.pathOf(id), path, width);
+        return path;
     }
 
-    public boolean hasPhotos(List<String> photosIds) {
-        try {
-            for (String photo : photosIds) {
-                Path path = Path.of(STORAGE_PATH + photo);
-                if (!Files.exists(path))
-                    return false;
+    private static Response.ResponseBuilder cacheable(Response.ResponseBuilder response, String etag) {
+        return response
+                .header(HttpHeaders.ETAG, etag)
+                .header(HttpHeaders.CACHE_CONTROL, IMMUTABLE)
+                .header(ACCEPT_RANGES, "bytes");
+    }
+
+    private static StreamingOutput content(ByteBuffer cached, Path path, long start, long length) {
+        return cached != null ? write(cached, start, length) : transfer(path, start, length);
+    }
+
+    private static StreamingOutput write(ByteBuffer cached, long start, long length) {
+        return out -> {
+            ByteBuffer region = cached.duplicate();
+            region.position((int) start).limit((int) (start + length));
+            WritableByteChannel target = Channels.newChannel(out);
+            while (region.hasRemaining())
+                target.write(region);
+        };
+    }
+
+    /**
+     * Copies a region of the file to the response with FileChannel.transferTo, without reading it
+     * into the heap first.
+     */
+    private static StreamingOutput transfer(Path path, long start, long length) {
+        return out -> {
+            try (FileChannel file = FileChannel.open(path, StandardOpenOption.READ)) {
+                WritableByteChannel target = Channels.newChannel(out);
+                long position = start;
+                long remaining = length;
+                while (remaining > 0) {
+                    long sent = file.transferTo(position, remaining, target);
+                    if (sent <= 0)
+                        break;
+                    position += sent;
+                    remaining -= sent;
+                }
             }
-        } catch (Exception e) {
-            e.printStackTrace();
-        }
-        return true;
+        };
     }
 
-    public List<String> listImages() {
+    /**
+     * A single byte range of a Range header. Requests with several ranges are answered with the whole file.
+     * <p>
+     * A syntactically invalid range, such as one whose last byte is before its first, is ignored like a
+     * missing header (RFC 7233 2.1), so only a valid range that starts past the file is unsatisfiable.
+     */
+    record ByteRange(long start, long end) {
+
+        static ByteRange parse(String header, long size) {
+            if (header == null || !header.startsWith("bytes=") || header.contains(","))
+                return null;
+
+            String spec = header.substring("bytes=".length()).trim();
+            int dash = spec.indexOf('-');
+            if (dash < 0)
+                return null;
+
+            try {
+                String first = spec.substring(0, dash).trim();
+                String last = spec.substring(dash + 1).trim();
+                if (first.isEmpty()) {
+                    // Suffix range: the last N bytes
+                    long suffix = Long.parseLong(last);
+                    if (suffix < 0)
+                        return null;
+                    return suffix == 0 ? new ByteRange(size, size) : new ByteRange(Math.max(0, size - suffix), size - 1);
+                }
+                long start = Long.parseLong(first);
+                if (last.isEmpty())
+                    return new ByteRange(start, size - 1);
+                long end = Long.parseLong(last);
+                if (start < 0 || end < start)
+                    return null;
+                return new ByteRange(start, Math.min(end, size - 1));
+            } catch (NumberFormatException e) {
+                return null;
+            }
+        }
+
+        boolean satisfiable(long size) {
+            return start >= 0 && start < size && start <= end;
+        }
 
-        //Get blobs
-        Path path = Path.of(STORAGE_PATH);
-        File f = new File(path.toUri());
+        long length() {
+            return end - start + 1;
+        }
+    }
+
+    public boolean hasPhotos(List<String> photosIds) {
+        return store.containsAll(photosIds);
+    }
 
-        var blob = f.list();
-        if (blob == null) {
-            return new ArrayList<>();
+    public Response listImages(String cursor) {
+        String after = null;
+        if (cursor != null && !cursor.isEmpty()) {
+            after = PageCursor.decode(cursor);
+            if (after == null)
+                return sendResponse(BAD_REQUEST, BAD_REQUEST_MSG);
         }
 
-        return Arrays.stream(blob).toList();
+        try {
+            var page = store.list(after, IMAGES_LIMIT);
+            String next = page.size() < IMAGES_LIMIT ? null : PageCursor.encode(page.get(page.size() - 1));
+            return sendPage(page, next);
+
+        } catch (IOException e) {
+            e.printStackTrace();
+            return sendResponse(INTERNAL_SERVER_ERROR);
+        }
     }
     
 }
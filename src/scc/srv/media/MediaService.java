@@ -1,10 +1,12 @@
 package scc.srv.media;
 
 import jakarta.ws.rs.*;
+import jakarta.ws.rs.core.HttpHeaders;
 import jakarta.ws.rs.core.MediaType;
 import jakarta.ws.rs.core.Response;
 
 
+import java.io.InputStream;
 import java.util.List;
 
 @Path(MediaService.PATH)
@@ -13,37 +15,49 @@ public interface MediaService {
 
     String ID = "id";
 
+    String RANGE = "Range";
+
+    String CURSOR = "cursor";
+
+    String WIDTH = "w";
+
     /**
      * Post a new image. The id of the media file is its hash.
      *
-     * @param contents bytes of the file
+     * @param contents bytes of the file, read as they arrive
      * @return id of media file
      */
     @POST
     @Consumes(MediaType.APPLICATION_OCTET_STREAM)
     @Produces(MediaType.APPLICATION_JSON)
-    String upload(byte[] contents);
+    String upload(InputStream contents);
 
 
     /**
      * Return the contents of media file. Throw an appropriate error message if
      * id does not exist.
      *
-     * @param id id of media file
+     * @param id          id of media file
+     * @param range       optional single byte range to return, e.g. bytes=0-1023
+     * @param ifNoneMatch optional ETag the client already has
+     * @param width       optional width of a downscaled variant of the image
      * @return bytes of the file
      */
     @GET
     @Path("/{" + ID + "}")
     @Produces(MediaType.APPLICATION_OCTET_STREAM)
-    Response download(@PathParam(ID) String id);
+    Response download(@PathParam(ID) String id, @HeaderParam(RANGE) String range,
+                      @HeaderParam(HttpHeaders.IF_NONE_MATCH) String ifNoneMatch, @QueryParam(WIDTH) Integer width);
 
 
     /**
-     * Lists the ids of media files
+     * Lists the ids of media files, in pages ordered by id. The token to get the next page is sent
+     * in the continuation header.
      *
-     * @return list with all ids
+     * @param cursor token of the page, absent for the first one
+     * @return page of ids
      */
     @GET
     @Produces(MediaType.APPLICATION_JSON)
-    List<String> listImages();
+    Response listImages(@QueryParam(CURSOR) String cursor);
 }
@@ -0,0 +1,235 @@
+package scc.srv.media;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Layout of the media files in the storage directory, and an in-memory index of the stored ids.
+ * <p>
+ * Files are spread over subdirectories named after the first characters of their id, so that no directory
+ * grows with the whole collection. Files left flat in the storage directory by older versions are moved
+ * into place when the index is built, and the temporary files of uploads that a stopped replica left
+ * halfway are deleted.
+ * <p>
+ * The storage may be shared with other replicas, so the index only remembers ids that are known to exist:
+ * an id missing from it is still looked up on disk before being reported as missing.
+ */
+public class MediaStore {
+
+    private static final String STORAGE_PATH = System.getenv("STORAGE_PATH");
+
+    private static final int SHARD_LENGTH = 2;
+
+    private static final String VARIANT_SEPARATOR = "_w";
+
+    // Uploads in progress, in the storage directory so that they can be renamed into place atomically
+    static final String TMP_PREFIX = ".upload-";
+
+    // A temporary file not written for this long belongs to an upload that will not finish. Newer ones
+    // may be in progress in another replica that shares the storage.
+    private static final long STALE_UPLOAD_TIME = 60 * 60 * 1000; // 1 hour
+
+    private static final MediaStore instance = new MediaStore(Path.of(STORAGE_PATH));
+
+    private final Path root;
+
+    private final Set<String> ids = ConcurrentHashMap.newKeySet();
+
+    private MediaStore(Path root) {
+        this.root = root;
+        try {
+            buildIndex();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    public static MediaStore getInstance() {
+        return instance;
+    }
+
+    public Path root() {
+        return root;
+    }
+
+    /**
+     * Returns the path of a media file, or null if the id can not be the id of a media file
+     */
+    public Path pathOf(String id) {
+        if (!isValidId(id))
+            return null;
+        return root.resolve(id.substring(0, SHARD_LENGTH)).resolve(id);
+    }
+
+    /**
+     * Id of the variant of an image with the given width. It is derived from the id of the original,
+     * which already identifies its content.
+     */
+    public static String variantId(String id, int width) {
+        return id + VARIANT_SEPARATOR + width;
+    }
+
+    /**
+     * Returns the path of a variant of a media file, next to the original, or null if the id is not valid
+     */
+    public Path variantPathOf(String id, int width) {
+        var path = pathOf(id);
+        return path == null ? null : path.resolveSibling(variantId(id, width));
+    }
+
+    public boolean contains(String id) {
+        if (ids.contains(id))
+            return true;
+        var path = pathOf(id);
+        if (path == null || !Files.exists(path))
+            return false;
+        ids.add(id);
+        return true;
+    }
+
+    public boolean containsAll(Collection<String> mediaIds) {
+        for (String id : mediaIds)
+            if (!contains(id))
+                return false;
+        return true;
+    }
+
+    /**
+     * Moves a fully written file to its place. If a file with the same id is already stored the new one
+     * is dropped, since both have the same content.
+     */
+    public void store(String id, Path file) throws IOException {
+        var path = pathOf(id);
+        if (contains(id)) {
+            Files.delete(file);
+            return;
+        }
+        Files.createDirectories(path.getParent());
+        Files.move(file, path, StandardCopyOption.ATOMIC_MOVE);
+        ids.add(id);
+    }
+
+    /**
+     * Returns up to limit ids greater than the given one, in order. Only the shards that hold the page
+     * are read, one at a time.
+     */
+    public List<String> list(String after, int limit) throws IOException {
+        List<String> page = new ArrayList<>();
+        for (String shard : shards()) {
+            if (after != null && shard.compareTo(after.substring(0, Math.min(SHARD_LENGTH, after.length()))) < 0)
+                continue;
+
+            List<String> shardIds = new ArrayList<>();
+            try (DirectoryStream<Path> files = Files.newDirectoryStream(root.resolve(shard))) {
+                for (Path file : files) {
+                    String id = file.getFileName().toString();
+                    if (isValidId(id) && (after == null || id.compareTo(after) > 0))
+                        shardIds.add(id);
+                }
+            }
+            Collections.sort(shardIds);
+
+            for (String id : shardIds) {
+                page.add(id);
+                if (page.size() == limit)
+                    return page;
+            }
+        }
+        return page;
+    }
+
+    private List<String> shards() throws IOException {
+        List<String> shards = new ArrayList<>();
+        try (DirectoryStream<Path> dirs = Files.newDirectoryStream(root, MediaStore::isShard)) {
+            for (Path dir : dirs)
+                shards.add(dir.getFileName().toString());
+        }
+        Collections.sort(shards);
+        return shards;
+    }
+
+    private void buildIndex() throws IOException {
+        if (!Files.isDirectory(root))
+            return;
+
+        List<Path> flat = new ArrayList<>();
+        try (DirectoryStream<Path> entries = Files.newDirectoryStream(root)) {
+            for (Path entry : entries) {
+                String name = entry.getFileName().toString();
+                if (isShard(entry))
+                    indexShard(entry);
+                else if (isValidId(name))
+                    flat.add(entry);
+                else
+                    deleteIfStaleUpload(entry);
+            }
+        }
+
+        for (Path file : flat) {
+            String id = file.getFileName().toString();
+            var path = pathOf(id);
+            Files.createDirectories(path.getParent());
+            try {
+                Files.move(file, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (NoSuchFileException e) {
+                // Moved by another replica that started at the same time
+            }
+            ids.add(id);
+        }
+    }
+
+    private void indexShard(Path shard) throws IOException {
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(shard)) {
+            for (Path file : files) {
+                String id = file.getFileName().toString();
+                if (isValidId(id))
+                    ids.add(id);
+                else
+                    deleteIfStaleUpload(file);
+            }
+        }
+    }
+
+    /**
+     * Deletes a file if it is the temporary file of an upload or variant that was abandoned
+     */
+    private static void deleteIfStaleUpload(Path file) throws IOException {
+        if (!file.getFileName().toString().startsWith(TMP_PREFIX))
+            return;
+        try {
+            if (Files.getLastModifiedTime(file).toMillis() < System.currentTimeMillis() - STALE_UPLOAD_TIME)
+                Files.deleteIfExists(file);
+        } catch (NoSuchFileException e) {
+            // Finished or deleted by another replica in the meantime
+        }
+    }
+
+    private static boolean isValidId(String id) {
+        return id != null && id.length() > SHARD_LENGTH && isHex(id);
+    }
+
+    /**
+     * Only the directories named after an id prefix are shards, so others on the same disk, such as
+     * lost+found, are left alone
+     */
+    private static boolean isShard(Path dir) {
+        String name = dir.getFileName().toString();
+        return name.length() == SHARD_LENGTH && isHex(name) && Files.isDirectory(dir);
+    }
+
+    private static boolean isHex(String s) {
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if ((c < '0' || c > '9') && (c < 'A' || c > 'F'))
+                return false;
+        }
+        return true;
+    }
+}
@@ -2,7 +2,6 @@ package scc.srv.question;
 
 import com.azure.cosmos.CosmosException;
 import com.fasterxml.jackson.core.JsonProcessingException;
-import com.fasterxml.jackson.databind.ObjectMapper;
 import com.mongodb.MongoException;
 import jakarta.ws.rs.WebApplicationException;
 import jakarta.ws.rs.core.Cookie;
@@ -10,89 +9,96 @@ import jakarta.ws.rs.core.Response;
 import scc.cache.Cache;
 import scc.data.*;
 import scc.db.MongoDBLayer;
+import scc.db.PageCursor;
 import scc.srv.houses.HousesService;
+import scc.srv.users.UsersService;
+import scc.srv.utils.ValidationPipeline;
 import scc.srv.utils.Validations;
 
-import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.CompletionStage;
 
 
+import static scc.srv.utils.IoExecutor.async;
 import static scc.srv.utils.Utility.*;
 
 public class QuestionResource extends Validations implements QuestionService {
 
     private final MongoDBLayer db = MongoDBLayer.getInstance();
-    private static final ObjectMapper mapper = new ObjectMapper();
 
     @Override
-    public Response createQuestion(Cookie session, String houseId, QuestionDAO questionDAO) throws Exception {
-        try {
-            questionDAO.setHouseId(houseId);
-            questionDAO.setId(UUID.randomUUID().toString());
+    public CompletionStage<Response> createQuestion(Cookie session, String houseId, QuestionDAO questionDAO) {
+        return async(() -> {
+            try {
+                questionDAO.setHouseId(houseId);
+                questionDAO.setId(UUID.randomUUID().toString());
 
-            checkQuestionCreation(session, questionDAO);
+                checkQuestionCreation(session, questionDAO);
 
-            db.create(questionDAO, COLLECTION);
+                db.create(questionDAO, COLLECTION);
 
-            Cache.putInCache(questionDAO, QUESTION_PREFIX);
+                Cache.putInCache(questionDAO, QUESTION_PREFIX);
+                Cache.invalidateTag(String.format(HOUSE_QUESTIONS_TAG, houseId));
 
-            return sendResponse(OK, questionDAO.toQuestion());
+                return sendResponse(OK, questionDAO.toQuestion());
 
-        } catch (MongoException ex) {
-            return Response.status(500).entity(ex.getMessage()).build();
-        } catch (WebApplicationException ex) {
-            return handleCreateException(ex.getResponse().getStatus(), ex.getMessage(), questionDAO);
-        }
+            } catch (MongoException ex) {
+                return Response.status(500).entity(ex.getMessage()).build();
+            } catch (WebApplicationException ex) {
+                return handleCreateException(ex.getResponse().getStatus(), ex.getMessage(), questionDAO);
+            }
+        });
     }
 
     @Override
-    public Response replyToQuestion(Cookie session, String houseId, String questionId, QuestionDAO questionDAO) throws Exception {
-        try {
-            var updatedQuestion = genUpdatedQuestion(session, houseId, questionId, questionDAO);
-            db.update(updatedQuestion.getId(), updatedQuestion, COLLECTION);
+    public CompletionStage<Response> replyToQuestion(Cookie session, String houseId, String questionId, QuestionDAO questionDAO) {
+        return async(() -> {
+            try {
+                var updatedQuestion = genUpdatedQuestion(session, houseId, questionId, questionDAO);
+                db.update(updatedQuestion.getId(), updatedQuestion, COLLECTION);
 
-            Cache.putInCache(updatedQuestion, QUESTION_PREFIX);
+                Cache.putInCache(updatedQuestion, QUESTION_PREFIX);
+                Cache.invalidateTag(String.format(HOUSE_QUESTIONS_TAG, houseId));
 
-            return sendResponse(OK, updatedQuestion.toQuestion());
+                return sendResponse(OK, updatedQuestion.toQuestion());
 
-        } catch (MongoException ex) {
-            return Response.status(500).entity(ex.getMessage()).build();
-        } catch (WebApplicationException ex) {
-            return handleUpdateException(ex.getResponse().getStatus(), ex.getMessage(), questionId, houseId);
-        }
+            } catch (MongoException ex) {
+                return Response.status(500).entity(ex.getMessage()).build();
+            } catch (WebApplicationException ex) {
+                return handleUpdateException(ex.getResponse().getStatus(), ex.getMessage(), questionId, houseId);
+            }
+        });
     }
 
     @Override
-    public Response listHouseQuestions(String houseId, int offset) {
-        var house = Validations.houseExists(houseId);
-        if (house == null)
-            return sendResponse(NOT_FOUND, HOUSE_MSG, houseId);
-
-        try {
-            List<Question> questions = new ArrayList<>();
-
-            String key = String.format(QUESTIONS_LIST_PREFIX, houseId, offset);
-            var cacheQuestions = Cache.getListFromCache(key);
-            if (!cacheQuestions.isEmpty()) {
-                for (String question : cacheQuestions) {
-                    questions.add(mapper.readValue(question, Question.class));
+    public CompletionStage<Response> listHouseQuestions(String houseId, int offset, String cursor) {
+        return async(() -> {
+            if (Validations.badCursor(cursor))
+                return sendResponse(BAD_REQUEST, BAD_REQUEST_MSG);
+
+            if (!Validations.hasHouse(houseId))
+                return sendResponse(NOT_FOUND, HOUSE_MSG, houseId);
+
+            try {
+                if (cursor != null) {
+                    var page = db.getHouseQuestionsAfter(houseId, cursor);
+                    return sendPage(page, PageCursor.next(page, MongoDBLayer.HOUSES_LIMIT));
                 }
-                return sendResponse(OK, questions);
-            }
 
-            questions = db.getHouseQuestions(houseId, offset);
+                String key = String.format(QUESTIONS_LIST_PREFIX, houseId, offset);
+                var questions = Cache.getList(key, Question.class, () -> db.getHouseQuestions(houseId, offset),
+                        String.format(HOUSE_QUESTIONS_TAG, houseId), HOUSE_QUESTIONS_PAGES_TAG);
 
-            Cache.putListInCache(questions, key);
-            Cache.putInCache(house, HousesService.HOUSE_PREFIX + houseId);
-
-            return sendResponse(OK, questions);
+                return sendResponse(OK, questions);
 
-        } catch (CosmosException ex) {
-            return processException(ex.getStatusCode(), ex.getMessage());
-        } catch (JsonProcessingException e) {
-            return processException(500, "Error while parsing questions");
-        }
+            } catch (CosmosException ex) {
+                return processException(ex.getStatusCode(), ex.getMessage());
+            } catch (JsonProcessingException e) {
+                return processException(500, "Error while parsing questions");
+            }
+        });
     }
 
     private void checkQuestionCreation(Cookie session, QuestionDAO questionDAO) throws Exception {
@@ -103,11 +109,15 @@ public class QuestionResource extends Validations implements QuestionService {
         if (checkCookies.getStatus() != Response.Status.OK.getStatusCode())
             throw new WebApplicationException(checkCookies.getEntity().toString(), Response.Status.UNAUTHORIZED);
 
-        if (Validations.houseExists(questionDAO.getHouseId()) == null)
-            throw new WebApplicationException(HOUSE_MSG, Response.Status.NOT_FOUND);
+        // Both keys are looked up in the cache at once, and only the ones that miss go to the database
+        var cached = Cache.areCached(List.of(
+                Map.entry(HousesService.HOUSE_PREFIX, questionDAO.getHouseId()),
+                Map.entry(UsersService.USER_PREFIX, questionDAO.getAskerId())));
 
-        if (Validations.userExists(questionDAO.getAskerId()) == null)
-            throw new WebApplicationException(USER_MSG, Response.Status.NOT_FOUND);
+        new ValidationPipeline()
+                .check(() -> Validations.hasHouse(questionDAO.getHouseId(), cached[0]), HOUSE_MSG, Response.Status.NOT_FOUND)
+                .check(() -> Validations.hasUser(questionDAO.getAskerId(), cached[1]), USER_MSG, Response.Status.NOT_FOUND)
+                .run();
     }
 
     private QuestionDAO genUpdatedQuestion(Cookie session, String houseId, String questionId, QuestionDAO questionDAO) throws Exception {
@@ -116,11 +126,11 @@ public class QuestionResource extends Validations implements QuestionService {
         if (Validations.badParams(answer))
             throw new WebApplicationException(BAD_REQUEST_MSG, Response.Status.BAD_REQUEST);
 
-        var house = Validations.houseExists(houseId);
-        if (house == null)
+        var ownerId = Validations.houseOwner(houseId);
+        if (ownerId == null)
             throw new WebApplicationException(HOUSE_MSG, Response.Status.NOT_FOUND);
 
-        var checkCookies = checkUserSession(session, house.getOwnerId());
+        var checkCookies = checkUserSession(session, ownerId);
         if (checkCookies.getStatus() != Response.Status.OK.getStatusCode())
             throw new WebApplicationException(checkCookies.getEntity().toString(), Response.Status.UNAUTHORIZED);
 
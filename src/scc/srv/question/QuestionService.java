@@ -7,6 +7,8 @@ import jakarta.ws.rs.core.Response;
 import scc.data.QuestionDAO;
 import scc.srv.authentication.Session;
 
+import java.util.concurrent.CompletionStage;
+
 @Path(QuestionService.PATH)
 public interface QuestionService {
     String PATH = "/house";
@@ -17,6 +19,10 @@ public interface QuestionService {
     String QUESTION_PREFIX = "q:";
     String QUESTIONS_LIST_PREFIX = "q:house:%s-off:%s";
 
+    // Tags of the cached pages of questions by house
+    String HOUSE_QUESTIONS_TAG = "t:house-questions:%s";
+    String HOUSE_QUESTIONS_PAGES_TAG = "t:house-questions";
+
     String HOUSE_ID = "id";
     String QUESTION = "/question";
     String QUESTION_ID = "questionId";
@@ -24,25 +30,27 @@ public interface QuestionService {
 
     String OFFSET = "offset";
 
+    String CURSOR = "cursor";
+
 
     @POST
     @Path("/{" + HOUSE_ID + "}" + QUESTION)
     @Consumes(MediaType.APPLICATION_JSON)
     @Produces(MediaType.APPLICATION_JSON)
-    Response createQuestion(@CookieParam(Session.SESSION) Cookie session, @PathParam(HOUSE_ID) String houseId, QuestionDAO questionDAO) throws Exception;
+    CompletionStage<Response> createQuestion(@CookieParam(Session.SESSION) Cookie session, @PathParam(HOUSE_ID) String houseId, QuestionDAO questionDAO);
 
     @PUT
     @Path("/{" + HOUSE_ID + "}" + QUESTION + "/{" + QUESTION_ID + "}")
     @Consumes(MediaType.APPLICATION_JSON)
     @Produces(MediaType.APPLICATION_JSON)
-    Response replyToQuestion(@CookieParam(Session.SESSION) Cookie session,
-                             @PathParam(HOUSE_ID) String houseId,
-                             @PathParam(QUESTION_ID) String questionId,
-                             QuestionDAO questionDAO)
-            throws Exception;
+    CompletionStage<Response> replyToQuestion(@CookieParam(Session.SESSION) Cookie session,
+                                              @PathParam(HOUSE_ID) String houseId,
+                                              @PathParam(QUESTION_ID) String questionId,
+                                              QuestionDAO questionDAO);
 
     @GET
     @Path("/{" + HOUSE_ID + "}" + QUESTION)
     @Produces(MediaType.APPLICATION_JSON)
-    Response listHouseQuestions(@PathParam(HOUSE_ID) String houseId, @QueryParam(OFFSET) int offset) throws Exception;
+    CompletionStage<Response> listHouseQuestions(@PathParam(HOUSE_ID) String houseId, @QueryParam(OFFSET) int offset,
+                                                 @QueryParam(CURSOR) String cursor);
 }
@@ -0,0 +1,176 @@
+package scc.srv.rentals;
+
+import scc.cache.Cache;
+import scc.data.RentalDAO;
+import scc.db.MongoDBLayer;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * In-memory index of the booked periods of each house (see {@link Bookings}).
+ * <p>
+ * A house is loaded from the database the first time it is checked and is kept up to date by the rental
+ * create and delete operations from then on. Each replica keeps its own index, so those operations tell
+ * the other replicas to drop the house through the cache invalidation channel. The whole index is dropped
+ * when that channel is resubscribed, and a house is reloaded after ENTRY_TIME in case some message was
+ * lost anyway. At most MAX_HOUSES are indexed, and expired houses are
+ * swept when it is full.
+ */
+public class AvailabilityIndex {
+
+    private static final long ENTRY_TIME = 5 * 60 * 1000; // 5 minutes
+    private static final int MAX_HOUSES = 100_000;
+
+    private static final AvailabilityIndex instance = new AvailabilityIndex();
+
+    private final MongoDBLayer db = MongoDBLayer.getInstance();
+
+    private final Map<String, Entry> houses = new ConcurrentHashMap<>();
+
+    // Counts the changes to the bookings of any house, in this replica or another one, so that a load
+    // that started before a change is not kept
+    private final AtomicLong changes = new AtomicLong();
+
+    private AvailabilityIndex() {
+        Cache.onInvalidation(key -> {
+            if (key.startsWith(RentalService.AVAILABILITY_PREFIX)) {
+                changes.incrementAndGet();
+                houses.remove(key.substring(RentalService.AVAILABILITY_PREFIX.length()));
+            }
+        }, this::clear);
+    }
+
+    /**
+     * Drops every house, since the changes published while the invalidation channel was down are lost
+     */
+    private void clear() {
+        changes.incrementAndGet();
+        houses.clear();
+    }
+
+    public static AvailabilityIndex getInstance() {
+        return instance;
+    }
+
+    /**
+     * Returns true if no rental of the house overlaps the days of the period [start, end]
+     */
+    public boolean isAvailable(String houseId, Date start, Date end) {
+        return !bookingsOf(houseId).overlaps(start, end);
+    }
+
+    /**
+     * Returns the ids of the given houses that are booked for some day of the period [start, end].
+     * Houses that are not indexed yet are resolved together in a single database query.
+     */
+    public Set<String> bookedHouses(Collection<String> houseIds, Date start, Date end) {
+        Set<String> booked = new HashSet<>();
+        List<String> notIndexed = new ArrayList<>();
+
+        for (var houseId : houseIds) {
+            var bookings = indexed(houseId);
+            if (bookings == null)
+                notIndexed.add(houseId);
+            else if (bookings.overlaps(start, end))
+                booked.add(houseId);
+        }
+
+        if (!notIndexed.isEmpty())
+            booked.addAll(db.getBookedHouses(notIndexed, start, end));
+
+        return booked;
+    }
+
+    public void addRental(RentalDAO rental) {
+        changes.incrementAndGet();
+        var bookings = indexed(rental.getHouseId());
+        if (bookings != null)
+            bookings.add(rental);
+        changed(rental.getHouseId());
+    }
+
+    public void removeRental(RentalDAO rental) {
+        changes.incrementAndGet();
+        var bookings = indexed(rental.getHouseId());
+        if (bookings != null)
+            bookings.remove(rental);
+        changed(rental.getHouseId());
+    }
+
+    public void removeHouse(String houseId) {
+        changes.incrementAndGet();
+        houses.remove(houseId);
+        changed(houseId);
+    }
+
+    /**
+     * Tells the other replicas to drop the house from their index
+     */
+    private void changed(String houseId) {
+        Cache.publishInvalidation(RentalService.AVAILABILITY_PREFIX + houseId);
+    }
+
+    /**
+     * Returns the bookings of a house if it is indexed and has not expired
+     */
+    private Bookings indexed(String houseId) {
+        var entry = houses.get(houseId);
+        if (entry == null)
+            return null;
+        if (entry.expired(System.currentTimeMillis())) {
+            houses.remove(houseId, entry);
+            return null;
+        }
+        return entry.bookings;
+    }
+
+    /**
+     * Returns the bookings of a house, loading them if the house is not indexed. The query runs outside
+     * the map, so it does not block the other houses.
+     */
+    private Bookings bookingsOf(String houseId) {
+        var bookings = indexed(houseId);
+        if (bookings != null)
+            return bookings;
+
+        // Read before the query, since the changes are counted after they are written to the database
+        long changesBefore = changes.get();
+        var loaded = new Bookings();
+        for (var rental : db.getAllHouseRentals(houseId))
+            loaded.add(rental);
+
+        // Some house changed while loading, which may have been this one
+        if (changes.get() != changesBefore || !hasRoom())
+            return loaded;
+
+        var raced = houses.putIfAbsent(houseId, new Entry(loaded, System.currentTimeMillis() + ENTRY_TIME));
+        return raced == null ? loaded : raced.bookings;
+    }
+
+    /**
+     * Sweeps the expired houses if the index is full. A house loaded while it is still full is not indexed.
+     */
+    private boolean hasRoom() {
+        if (houses.size() < MAX_HOUSES)
+            return true;
+        long now = System.currentTimeMillis();
+        houses.values().removeIf(entry -> entry.expired(now));
+        return houses.size() < MAX_HOUSES;
+    }
+
+    private static class Entry {
+        private final Bookings bookings;
+        private final long expiresAt;
+
+        Entry(Bookings bookings, long expiresAt) {
+            this.bookings = bookings;
+            this.expiresAt = expiresAt;
+        }
+
+        boolean expired(long now) {
+            return expiresAt < now;
+        }
+    }
+}
@@ -0,0 +1,78 @@
+package scc.srv.rentals;
+
+import scc.data.RentalDAO;
+import scc.srv.utils.Utility;
+
+import java.util.Comparator;
+import java.util.Date;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The booked periods of a house.
+ * <p>
+ * The bookings are kept sorted by their initial date. Rentals made before the reservations existed may
+ * overlap each other, so an overlap check can not stop at the booking that starts closest before the end
+ * of the requested period. Instead it looks at every booking that starts within the longest booking so
+ * far before the start of the period, since no booking that starts earlier can reach it. Without
+ * overlapping rentals that is just the few bookings around the period.
+ * <p>
+ * Bookings are compared by UTC day, like the reservations that enforce them, so a rental that ends on
+ * the day another one starts overlaps it.
+ */
+class Bookings {
+
+    private final ConcurrentSkipListSet<Booking> bookings = new ConcurrentSkipListSet<>();
+
+    // Days from the start to the end of the longest booking ever added. It is not lowered on removal,
+    // which only makes the checks look at a few more bookings.
+    private final AtomicLong longest = new AtomicLong();
+
+    void add(RentalDAO rental) {
+        var booking = Booking.of(rental);
+        longest.accumulateAndGet(booking.end - booking.start, Math::max);
+        bookings.add(booking);
+    }
+
+    void remove(RentalDAO rental) {
+        bookings.remove(Booking.of(rental));
+    }
+
+    /**
+     * Returns true if some booking overlaps the days of the period [start, end]
+     */
+    boolean overlaps(Date start, Date end) {
+        long first = Booking.day(start);
+        var candidates = bookings.subSet(
+                new Booking(first - longest.get(), Long.MIN_VALUE, ""), true,
+                new Booking(Booking.day(end), Long.MAX_VALUE, Booking.LAST_ID), true);
+        for (var candidate : candidates.descendingSet())
+            if (candidate.end >= first)
+                return true;
+        return false;
+    }
+
+    /**
+     * The first and last days of a rental, as UTC epoch days
+     */
+    private record Booking(long start, long end, String rentalId) implements Comparable<Booking> {
+
+        private static final String LAST_ID = "\uffff";
+
+        private static final Comparator<Booking> ORDER = Comparator.comparingLong(Booking::start)
+                .thenComparing(Booking::rentalId);
+
+        static Booking of(RentalDAO rental) {
+            return new Booking(day(rental.getInitialDate()), day(rental.getEndDate()), rental.getId());
+        }
+
+        static long day(Date date) {
+            return Utility.dayOf(date).toEpochDay();
+        }
+
+        @Override
+        public int compareTo(Booking other) {
+            return ORDER.compare(this, other);
+        }
+    }
+}
@@ -1,7 +1,6 @@
 package scc.srv.rentals;
 
 import com.fasterxml.jackson.core.JsonProcessingException;
-import com.fasterxml.jackson.databind.ObjectMapper;
 import com.mongodb.MongoException;
 import jakarta.ws.rs.WebApplicationException;
 import jakarta.ws.rs.core.Cookie;
@@ -9,151 +8,157 @@ import jakarta.ws.rs.core.Response;
 import scc.cache.Cache;
 import scc.data.*;
 import scc.db.MongoDBLayer;
+import scc.db.PageCursor;
 import scc.srv.houses.HousesService;
 import scc.srv.users.UsersService;
+import scc.srv.utils.ValidationPipeline;
 import scc.srv.utils.Validations;
 
 import java.time.Instant;
-import java.time.ZoneId;
 import java.time.temporal.ChronoUnit;
 import java.util.*;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.atomic.AtomicReference;
 
+import static scc.srv.utils.IoExecutor.async;
 import static scc.srv.utils.Utility.*;
 
 public class RentalResource extends Validations implements RentalService {
 
     private final MongoDBLayer db = MongoDBLayer.getInstance();
-    private static final ObjectMapper mapper = new ObjectMapper();
 
     @Override
-    public Response createRental(Cookie session, String houseId, RentalDAO rentalDAO) throws Exception {
-        try {
-            rentalDAO.setId(UUID.randomUUID().toString());
-            rentalDAO.setHouseId(houseId);
+    public CompletionStage<Response> createRental(Cookie session, String houseId, RentalDAO rentalDAO) {
+        return async(() -> {
+            try {
+                rentalDAO.setId(UUID.randomUUID().toString());
+                rentalDAO.setHouseId(houseId);
 
-            var house = checkRentalCreation(session, houseId, rentalDAO);
+                var house = checkRentalCreation(session, houseId, rentalDAO);
 
-            long daysBetween = ChronoUnit.DAYS.between(
-                    rentalDAO.getInitialDate().toInstant().atZone(ZoneId.systemDefault()).toLocalDate(),
-                    rentalDAO.getEndDate().toInstant().atZone(ZoneId.systemDefault()).toLocalDate()
-            );
+                long daysBetween = ChronoUnit.DAYS.between(
+                        dayOf(rentalDAO.getInitialDate()),
+                        dayOf(rentalDAO.getEndDate())
+                );
 
-            rentalDAO.setPrice((int) (daysBetween * (house.getPrice() - house.getDiscount())));
+                rentalDAO.setPrice((int) (daysBetween * (house.getPrice() - house.getDiscount())));
 
-            db.create(rentalDAO, COLLECTION);
+                // Some concurrent booking may have reserved the same days after the availability check
+                if (!db.bookRental(rentalDAO))
+                    throw new WebApplicationException(RENTAL_MSG, Response.Status.CONFLICT);
 
-            // Check if the rental was successfull or some concurrent one got there first
-            var rentalInDB = Validations.rentalExists(rentalDAO.getId());
+                Cache.putInCache(rentalDAO, RENTAL_PREFIX);
+                Cache.deleteFromCache(HousesService.HOUSE_PREFIX, houseId);
+                availability.addRental(rentalDAO);
+                Cache.invalidateTag(pageTags(rentalDAO, new HouseSummary(house)));
 
-            if (rentalInDB == null)
-                return sendResponse(INTERNAL_SERVER_ERROR);
+                return sendResponse(OK, rentalDAO.toRental());
 
-            if (!rentalInDB.getId().equals(rentalDAO.getId()) || !rentalInDB.getUserId().equals(rentalDAO.getUserId()))
-                return sendResponse(CONFLICT, RENTAL_MSG, rentalDAO.getId());
-
-            Cache.putInCache(rentalDAO, RENTAL_PREFIX);
-
-            house.setRentalsCounter(house.getRentalsCounter() + 1);
-            db.update(house.getId(), house, HousesService.COLLECTION);
-
-            return sendResponse(OK, rentalDAO.toRental());
-
-        } catch (MongoException ex) {
-            return Response.status(500).entity(ex.getMessage()).build();
-        } catch (WebApplicationException ex) {
-            return handleCreateException(ex.getResponse().getStatus(), ex.getMessage(), rentalDAO);
-        }
+            } catch (MongoException ex) {
+                return Response.status(500).entity(ex.getMessage()).build();
+            } catch (WebApplicationException ex) {
+                return handleCreateException(ex.getResponse().getStatus(), ex.getMessage(), rentalDAO);
+            }
+        });
     }
 
     @Override
-    public Response getRental(String houseId, String id) throws Exception {
-        if (Validations.badParams(id))
-            return sendResponse(BAD_REQUEST, BAD_REQUEST_MSG);
-
-        try {
-            var rental = Validations.rentalExists(id);
-            if (rental == null)
-                return sendResponse(NOT_FOUND, RENTAL_MSG, id);
-
-            var rentalHouse = rental.getHouseId();
-            if (!houseId.equals(rentalHouse)) {
-                return sendResponse(BAD_REQUEST, String.format(RENTAL_NOT_BELONG_TO_HOUSE, id, houseId));
-            }
+    public CompletionStage<Response> getRental(String houseId, String id) {
+        return async(() -> {
+            if (Validations.badParams(id))
+                return sendResponse(BAD_REQUEST, BAD_REQUEST_MSG);
+
+            try {
+                var rental = Validations.rentalExists(id);
+                if (rental == null)
+                    return sendResponse(NOT_FOUND, RENTAL_MSG, id);
+
+                var rentalHouse = rental.getHouseId();
+                if (!houseId.equals(rentalHouse)) {
+                    return sendResponse(BAD_REQUEST, String.format(RENTAL_NOT_BELONG_TO_HOUSE, id, houseId));
+                }
 
-            Cache.putInCache(rental, RENTAL_PREFIX);
+                Cache.putInCache(rental, RENTAL_PREFIX);
 
-            return sendResponse(OK, rental.toRental());
+                return sendResponse(OK, rental.toRental());
 
-        } catch (MongoException ex) {
-            return Response.status(500).entity(ex.getMessage()).build();
-        }
+            } catch (MongoException ex) {
+                return Response.status(500).entity(ex.getMessage()).build();
+            }
+        });
     }
 
     @Override
-    public Response deleteRental(String houseId, String id) {
-        try {
-            var checks = checkRentalDeletion(houseId, id);
-            if (checks.getStatus() != Response.Status.OK.getStatusCode())
-                return checks;
+    public CompletionStage<Response> deleteRental(String houseId, String id) {
+        return async(() -> {
+            try {
+                var checks = checkRentalDeletion(houseId, id);
+                if (checks.getStatus() != Response.Status.OK.getStatusCode())
+                    return checks;
 
-            db.delete(id, COLLECTION);
+                db.deleteRental(id);
 
-            Cache.deleteFromCache(RENTAL_PREFIX, id);
+                var rental = (RentalDAO) checks.getEntity();
+                Cache.deleteFromCache(RENTAL_PREFIX, id);
+                availability.removeRental(rental);
+                Cache.invalidateTag(pageTags(rental, Validations.houseSummary(houseId)));
 
-            return sendResponse(OK, String.format(RESOURCE_WAS_DELETED, RENTAL_MSG, id));
+                return sendResponse(OK, String.format(RESOURCE_WAS_DELETED, RENTAL_MSG, id));
 
-        } catch (MongoException ex) {
-            return Response.status(500).entity(ex.getMessage()).build();
-        }
+            } catch (MongoException ex) {
+                return Response.status(500).entity(ex.getMessage()).build();
+            }
+        });
     }
 
     @Override
-    public Response updateRental(Cookie session, String houseId, String id, RentalDAO rentalDAO) throws Exception {
-        try {
-            var updatedRental = genUpdatedRental(session, houseId, id, rentalDAO);
-            rentalDAO = updatedRental;
+    public CompletionStage<Response> updateRental(Cookie session, String houseId, String id, RentalDAO rentalDAO) {
+        return async(() -> {
+            try {
+                var updatedRental = genUpdatedRental(session, houseId, id, rentalDAO);
 
-            db.update(updatedRental.getId(), updatedRental, RentalService.COLLECTION);
+                db.update(updatedRental.getId(), updatedRental, RentalService.COLLECTION);
 
-            Cache.putInCache(updatedRental, RENTAL_PREFIX);
+                Cache.putInCache(updatedRental, RENTAL_PREFIX);
+                Cache.invalidateTag(pageTags(updatedRental, null));
 
-            return sendResponse(OK, updatedRental.toRental());
+                return sendResponse(OK, updatedRental.toRental());
 
-        } catch (MongoException ex) {
-            return Response.status(500).entity(ex.getMessage()).build();
-        } catch (WebApplicationException ex) {
-            return handleCreateException(ex.getResponse().getStatus(), ex.getMessage(), rentalDAO);
-        }
+            } catch (MongoException ex) {
+                return Response.status(500).entity(ex.getMessage()).build();
+            } catch (WebApplicationException ex) {
+                return handleCreateException(ex.getResponse().getStatus(), ex.getMessage(), rentalDAO);
+            }
+        });
     }
 
     @Override
-    public Response listHouseRentals(String houseId, int offset) {
-        try {
-            if (Validations.houseExists(houseId) == null)
-                return sendResponse(NOT_FOUND, HOUSE_MSG, HOUSE_ID);
-
-            List<Rental> houseRentals = new ArrayList<>();
-
-            String key = String.format(HOUSE_RENTALS, houseId, offset);
-            var cacheHouses = Cache.getListFromCache(key);
-            if (!cacheHouses.isEmpty()) {
-                for (var house : cacheHouses) {
-                    houseRentals.add(mapper.readValue(house, Rental.class));
+    public CompletionStage<Response> listHouseRentals(String houseId, int offset, String cursor) {
+        return async(() -> {
+            if (Validations.badCursor(cursor))
+                return sendResponse(BAD_REQUEST, BAD_REQUEST_MSG);
+
+            try {
+                if (!Validations.hasHouse(houseId))
+                    return sendResponse(NOT_FOUND, HOUSE_MSG, HOUSE_ID);
+
+                if (cursor != null) {
+                    var page = db.listHouseRentalsAfter(houseId, cursor);
+                    return sendPage(page, PageCursor.next(page, MongoDBLayer.HOUSES_LIMIT));
                 }
-                return sendResponse(OK, houseRentals);
-            }
-
-            houseRentals = db.listHouseRentals(houseId, offset);
 
-            Cache.putListInCache(houseRentals, key);
+                String key = String.format(HOUSE_RENTALS, houseId, offset);
+                var houseRentals = Cache.getList(key, Rental.class, () -> db.listHouseRentals(houseId, offset),
+                        String.format(HOUSE_RENTALS_TAG, houseId), HOUSE_RENTALS_PAGES_TAG);
 
-            return sendResponse(OK, houseRentals);
+                return sendResponse(OK, houseRentals);
 
-        } catch (MongoException ex) {
-            return Response.status(500).entity(ex.getMessage()).build();
-        } catch (JsonProcessingException e) {
-            return processException(500);
-        }
+            } catch (MongoException ex) {
+                return Response.status(500).entity(ex.getMessage()).build();
+            } catch (JsonProcessingException e) {
+                return processException(500);
+            }
+        });
     }
 
 
@@ -161,11 +166,11 @@ public class RentalResource extends Validations implements RentalService {
         if (Validations.badParams(id))
             throw new WebApplicationException(BAD_REQUEST_MSG, Response.Status.BAD_REQUEST);
 
-        var house = Validations.houseExists(houseId);
-        if (house == null)
+        var ownerId = Validations.houseOwner(houseId);
+        if (ownerId == null)
             throw new WebApplicationException(HOUSE_MSG, Response.Status.NOT_FOUND);
 
-        var checkCookies = checkUserSession(session, house.getOwnerId());
+        var checkCookies = checkUserSession(session, ownerId);
         if (checkCookies.getStatus() != Response.Status.OK.getStatusCode())
             throw new WebApplicationException(checkCookies.getEntity().toString(), Response.Status.UNAUTHORIZED);
 
@@ -189,9 +194,6 @@ public class RentalResource extends Validations implements RentalService {
     }
 
     private HouseDAO checkRentalCreation(Cookie session, String houseId, RentalDAO rental) throws Exception {
-        if (Validations.userExists(rental.getUserId()) == null)
-            throw new WebApplicationException(USER_MSG, Response.Status.NOT_FOUND);
-
         var checkCookies = checkUserSession(session, rental.getUserId());
         if (checkCookies.getStatus() != Response.Status.OK.getStatusCode())
             throw new WebApplicationException(checkCookies.getEntity().toString(), Response.Status.UNAUTHORIZED);
@@ -199,24 +201,49 @@ public class RentalResource extends Validations implements RentalService {
         if (Validations.badParams(rental.getUserId()) || Validations.datesNotValid(rental.getInitialDate(), rental.getEndDate()))
             throw new WebApplicationException("Something in your request is wrong. Check dates pls.", Response.Status.BAD_REQUEST);
 
-        var house = Validations.houseExists(houseId);
-        if (house == null)
-            throw new WebApplicationException(HOUSE_MSG, Response.Status.NOT_FOUND);
-        else if (house.getOwnerId().equals(UsersService.DELETED_USER))
+        if (Validations.periodTooLong(rental.getInitialDate(), rental.getEndDate()))
+            throw new WebApplicationException(String.format(RENTAL_TOO_LONG, Validations.MAX_RENTAL_DAYS),
+                    Response.Status.BAD_REQUEST);
+
+        var house = new AtomicReference<HouseDAO>();
+        new ValidationPipeline()
+                .check(() -> Validations.hasUser(rental.getUserId()), USER_MSG, Response.Status.NOT_FOUND)
+                .check(() -> {
+                    house.set(Validations.houseExists(houseId));
+                    return house.get() != null;
+                }, HOUSE_MSG, Response.Status.NOT_FOUND)
+                .run();
+
+        if (house.get().getOwnerId().equals(UsersService.DELETED_USER))
             throw new WebApplicationException(Response.Status.FORBIDDEN);
 
         if (!Validations.isAvailable(houseId, rental.getInitialDate(), rental.getEndDate()))
             throw new WebApplicationException(RENTAL_MSG, Response.Status.CONFLICT);
 
-        return house;
+        return house.get();
+    }
+
+    /**
+     * Tags of the cached pages that list the rental, and of the pages that list its house as available
+     * when the rental changes the availability of the house
+     */
+    private static String[] pageTags(RentalDAO rental, HouseSummary house) {
+        List<String> tags = new ArrayList<>();
+        tags.add(String.format(HOUSE_RENTALS_TAG, rental.getHouseId()));
+        tags.add(String.format(UsersService.RENTER_TAG, rental.getUserId()));
+        if (house != null) {
+            tags.add(String.format(HousesService.LOCATION_TAG, house.getLocation()));
+            if (house.getDiscount() != null && house.getDiscount() > 0)
+                tags.add(HousesService.DISCOUNT_PAGES_TAG);
+        }
+        return tags.toArray(new String[0]);
     }
 
     private Response checkRentalDeletion(String houseId, String id) {
         if (Validations.badParams(id))
             return sendResponse(BAD_REQUEST, BAD_REQUEST_MSG);
 
-        var house = Validations.houseExists(houseId);
-        if (house == null)
+        if (!Validations.hasHouse(houseId))
             return sendResponse(NOT_FOUND, HOUSE_MSG, houseId);
 
         // Check if rental belongs to the house
@@ -230,7 +257,7 @@ public class RentalResource extends Validations implements RentalService {
             }
         }
 
-        return Response.ok().build();
+        return Response.ok(rental).build();
     }
 
     private Response handleCreateException(int statusCode, String msg, RentalDAO rental) {
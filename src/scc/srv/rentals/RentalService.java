@@ -7,6 +7,8 @@ import jakarta.ws.rs.core.Response;
 import scc.data.*;
 import scc.srv.authentication.Session;
 
+import java.util.concurrent.CompletionStage;
+
 
 @Path(RentalService.PATH)
 
@@ -16,8 +18,12 @@ public interface RentalService {
 
     String PARTITION_KEY = "/houseId";
     String COLLECTION = "rentals";
+    String RESERVATIONS_COLLECTION = "reservations";
     String RENTAL_PREFIX = "r:";
 
+    // Key published when the rentals of a house change, so that every replica reloads its availability
+    String AVAILABILITY_PREFIX = "avail:";
+
 
     String HOUSE_ID = "houseId";
     String RENTAL_ID = "id";
@@ -25,39 +31,45 @@ public interface RentalService {
 
     String HOUSE_RENTALS = "r:house:%s-off:%s";
 
+    // Tags of the cached pages of rentals by house
+    String HOUSE_RENTALS_TAG = "t:house-rentals:%s";
+    String HOUSE_RENTALS_PAGES_TAG = "t:house-rentals";
+
 
     String OFFSET = "offset";
 
+    String CURSOR = "cursor";
+
 
     @POST
     @Path("{" + HOUSE_ID + "}" + RENTAL)
     @Consumes(MediaType.APPLICATION_JSON)
     @Produces(MediaType.APPLICATION_JSON)
-    Response createRental(@CookieParam(Session.SESSION) Cookie session, @PathParam(HOUSE_ID) String houseId, RentalDAO rentalDAO) throws Exception;
+    CompletionStage<Response> createRental(@CookieParam(Session.SESSION) Cookie session, @PathParam(HOUSE_ID) String houseId, RentalDAO rentalDAO);
 
     @GET
     @Path("{" + HOUSE_ID + "}" + RENTAL + "/{" + RENTAL_ID + "}")
     @Consumes(MediaType.APPLICATION_JSON)
     @Produces(MediaType.APPLICATION_JSON)
-    Response getRental(@PathParam(HOUSE_ID) String houseID, @PathParam(RENTAL_ID) String id) throws Exception;
+    CompletionStage<Response> getRental(@PathParam(HOUSE_ID) String houseID, @PathParam(RENTAL_ID) String id);
 
     @DELETE
     @Path("/{" + HOUSE_ID + "}" + RENTAL + "/{" + RENTAL_ID + "}")
     @Produces(MediaType.APPLICATION_JSON)
     @Consumes(MediaType.APPLICATION_JSON)
-    Response deleteRental(@PathParam(HOUSE_ID) String houseID, @PathParam(RENTAL_ID) String id);
+    CompletionStage<Response> deleteRental(@PathParam(HOUSE_ID) String houseID, @PathParam(RENTAL_ID) String id);
 
     @PUT
     @Path("/{" + HOUSE_ID + "}" + RENTAL + "/{" + RENTAL_ID + "}")
     @Produces(MediaType.APPLICATION_JSON)
     @Consumes(MediaType.APPLICATION_JSON)
-    Response updateRental(@CookieParam(Session.SESSION) Cookie session, @PathParam(HOUSE_ID) String houseID, @PathParam(RENTAL_ID) String id, RentalDAO rentalDAO) throws Exception;
+    CompletionStage<Response> updateRental(@CookieParam(Session.SESSION) Cookie session, @PathParam(HOUSE_ID) String houseID, @PathParam(RENTAL_ID) String id, RentalDAO rentalDAO);
 
     @GET
     @Path("/{" + HOUSE_ID + "}" + RENTAL)
     @Consumes(MediaType.APPLICATION_JSON)
     @Produces(MediaType.APPLICATION_JSON)
-    Response listHouseRentals(@PathParam(HOUSE_ID) String houseID, @QueryParam(OFFSET) int offset);
+    CompletionStage<Response> listHouseRentals(@PathParam(HOUSE_ID) String houseID, @QueryParam(OFFSET) int offset, @QueryParam(CURSOR) String cursor);
 
 
 }
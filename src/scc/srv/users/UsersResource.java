@@ -3,7 +3,6 @@ package scc.srv.users;
 import com.azure.cosmos.CosmosException;
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.JsonMappingException;
-import com.fasterxml.jackson.databind.ObjectMapper;
 import com.mongodb.MongoException;
 import jakarta.ws.rs.WebApplicationException;
 import jakarta.ws.rs.core.Cookie;
@@ -13,36 +12,41 @@ import org.bson.types.ObjectId;
 import scc.cache.Cache;
 import scc.data.*;
 import scc.db.MongoDBLayer;
+import scc.db.PageCursor;
 import scc.srv.authentication.Login;
 import scc.srv.authentication.Session;
+import scc.srv.authentication.Sessions;
 import scc.srv.houses.HousesService;
 import scc.srv.rentals.RentalService;
 import scc.srv.utils.Validations;
 import scc.utils.Hash;
 
 import java.math.BigInteger;
-import java.util.ArrayList;
 import java.util.HexFormat;
 import java.util.List;
 import java.util.UUID;
-import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
 
+import static scc.srv.utils.IoExecutor.async;
 import static scc.srv.utils.Utility.*;
 
 
 public class UsersResource extends Validations implements UsersService {
 
     private final MongoDBLayer db = MongoDBLayer.getInstance();
-    private final ObjectMapper mapper = new ObjectMapper();
 
     @Override
-    public Response auth(Login credentials) throws Exception {
+    public CompletionStage<Response> auth(Login credentials) {
+        return async(() -> login(credentials));
+    }
+
+    private Response login(Login credentials) throws Exception {
         if (Validations.badParams(credentials.getId(), credentials.getPwd()))
             return sendResponse(BAD_REQUEST, BAD_REQUEST_MSG);
 
         String id = credentials.getId();
 
-        var res = getUser(id);
+        var res = findUser(id);
         if (res.getStatus() != Response.Status.OK.getStatusCode())
             return Response.status(res.getStatus()).entity(res.getEntity()).build();
 
@@ -51,96 +55,90 @@ public class UsersResource extends Validations implements UsersService {
         if (!Hash.of(credentials.getPwd()).equals(user.getPwd()))
             return sendResponse(UNAUTHORIZED, INCORRECT_LOGIN);
 
-        String uid = UUID.randomUUID().toString();
-        NewCookie cookie = new NewCookie.Builder(Session.SESSION)
-                .value(id)
-                .path("/")
-                .comment("sessionid")
-                .maxAge(3600)
-                .secure(false)
-                .httpOnly(true)
-                .build();
-
-        Cache.putCookieInCache(new Session(uid, id), Session.SESSION_PREFIX);
+        NewCookie cookie = Sessions.cookie(Sessions.issue(id));
 
         return Response.ok(user).cookie(cookie).build();
     }
 
     @Override
-    public Response createUser(UserDAO userDAO) throws Exception {
-        String id = userDAO.getId();
+    public CompletionStage<Response> createUser(UserDAO userDAO) {
+        return async(() -> {
+            String id = userDAO.getId();
 
-        if (Validations.badParams(id, userDAO.getName(), userDAO.getPwd(), userDAO.getPhotoId()))
-            return sendResponse(BAD_REQUEST, BAD_REQUEST_MSG);
+            if (Validations.badParams(id, userDAO.getName(), userDAO.getPwd(), userDAO.getPhotoId()))
+                return sendResponse(BAD_REQUEST, BAD_REQUEST_MSG);
 
-        if (Validations.userExists(id) != null)
-            return sendResponse(CONFLICT, USER_MSG, userDAO.getId());
+            if (Validations.hasUser(id))
+                return sendResponse(CONFLICT, USER_MSG, userDAO.getId());
 
-        if (!Validations.mediaExists(List.of(userDAO.getPhotoId())))
-            return sendResponse(NOT_FOUND, MEDIA_MSG, "(some id)");
+            if (!Validations.mediaExists(List.of(userDAO.getPhotoId())))
+                return sendResponse(NOT_FOUND, MEDIA_MSG, "(some id)");
 
-        try {
-            var plainPwd = userDAO.getPwd();
-            userDAO.setPwd(Hash.of(plainPwd));
+            try {
+                var plainPwd = userDAO.getPwd();
+                userDAO.setPwd(Hash.of(plainPwd));
 
-            db.create(userDAO, UsersService.COLLECTION);
+                db.create(userDAO, UsersService.COLLECTION);
 
-            Cache.putInCache(userDAO, USER_PREFIX);
+                Cache.putInCache(userDAO, USER_PREFIX);
 
-            return auth(new Login(id, plainPwd));
-        } catch (MongoException ex) {
-            return Response.status(500).entity(ex.getMessage()).build();
-        }
+                return login(new Login(id, plainPwd));
+            } catch (MongoException ex) {
+                return Response.status(500).entity(ex.getMessage()).build();
+            }
+        });
     }
 
     @Override
-    public Response deleteUser(Cookie session, String id) throws Exception {
-        if (Validations.badParams(id))
-            return sendResponse(BAD_REQUEST, BAD_REQUEST_MSG);
+    public CompletionStage<Response> deleteUser(Cookie session, String id) {
+        return async(() -> {
+            if (Validations.badParams(id))
+                return sendResponse(BAD_REQUEST, BAD_REQUEST_MSG);
 
-        var checkCookies = checkUserSession(session, id);
-        if (checkCookies.getStatus() != Response.Status.OK.getStatusCode())
-            return checkCookies;
+            var checkCookies = checkUserSession(session, id);
+            if (checkCookies.getStatus() != Response.Status.OK.getStatusCode())
+                return checkCookies;
 
-        try {
-            updateUserHousesAndRentals(id);
+            try {
+                updateUserHousesAndRentals(id);
 
-            db.delete(id, UsersService.COLLECTION);
+                db.delete(id, UsersService.COLLECTION);
 
-            Cache.deleteFromCache(USER_PREFIX, id);
+                Cache.deleteFromCache(USER_PREFIX, id);
 
-            return sendResponse(OK, String.format(RESOURCE_WAS_DELETED, USER_MSG, id));
+                // Every token of the user, not only the one of this request
+                Sessions.revokeAll(id);
 
-        } catch (MongoException ex) {
-            return Response.status(500).entity(ex.getMessage()).build();
-        }
-    }
-
-    private void updateUserHousesAndRentals(String id) {
-        var updateHouses = CompletableFuture.runAsync(() -> {
-            var userHouses = db.getAllUserHouses(id);
-            for (var house : userHouses) {
-                house.setOwnerId(DELETED_USER);
-                db.update(house.getId(), house, HousesService.COLLECTION);
-                Cache.deleteFromCache(HousesService.HOUSE_PREFIX, house.getId());
-            }
-        });
+                return sendResponse(OK, String.format(RESOURCE_WAS_DELETED, USER_MSG, id));
 
-        var updateRentals = CompletableFuture.runAsync(() -> {
-            var userRentals = db.getAllUserRentals(id);
-            for (var rental : userRentals) {
-                rental.setUserId(DELETED_USER);
-                db.update(rental.getHouseId(), rental, RentalService.COLLECTION);
-                Cache.deleteFromCache(RentalService.RENTAL_PREFIX, rental.getId());
+            } catch (MongoException ex) {
+                return Response.status(500).entity(ex.getMessage()).build();
             }
         });
+    }
 
-        var allUpdates = CompletableFuture.allOf(updateHouses, updateRentals);
-        allUpdates.join();
+    // Runs in the calling I/O thread: waiting on other tasks of the same bounded pool could deadlock it
+    private void updateUserHousesAndRentals(String id) {
+        var houseIds = db.transferUserHouses(id, DELETED_USER);
+        Cache.deleteAllFromCache(HousesService.HOUSE_PREFIX, houseIds);
+
+        var rentalIds = db.transferUserRentals(id, DELETED_USER);
+        Cache.deleteAllFromCache(RentalService.RENTAL_PREFIX, rentalIds);
+
+        // The owner and renter are shown in the pages of every house that changed hands
+        if (!houseIds.isEmpty())
+            Cache.invalidateTag(HousesService.LOCATION_PAGES_TAG, HousesService.DISCOUNT_PAGES_TAG);
+        if (!rentalIds.isEmpty())
+            Cache.invalidateTag(RentalService.HOUSE_RENTALS_PAGES_TAG);
+        Cache.invalidateTag(String.format(OWNER_TAG, id), String.format(RENTER_TAG, id));
     }
 
     @Override
-    public Response getUser(String id) throws JsonProcessingException {
+    public CompletionStage<Response> getUser(String id) {
+        return async(() -> findUser(id));
+    }
+
+    private Response findUser(String id) throws JsonProcessingException {
         if (Validations.badParams(id))
             return sendResponse(BAD_REQUEST, BAD_REQUEST_MSG);
 
@@ -160,116 +158,106 @@ public class UsersResource extends Validations implements UsersService {
     }
 
     @Override
-    public Response updateUser(Cookie session, String id, User user) throws Exception {
-        try {
-            var checkCookies = checkUserSession(session, id);
-            if (checkCookies.getStatus() != Response.Status.OK.getStatusCode())
-                return checkCookies;
+    public CompletionStage<Response> updateUser(Cookie session, String id, User user) {
+        return async(() -> {
+            try {
+                var checkCookies = checkUserSession(session, id);
+                if (checkCookies.getStatus() != Response.Status.OK.getStatusCode())
+                    return checkCookies;
 
-            var updatedUser = genUpdatedUserDAO(id, user);
+                var updatedUser = genUpdatedUserDAO(id, user);
 
-            db.update(id, updatedUser, UsersService.COLLECTION);
+                db.update(id, updatedUser, UsersService.COLLECTION);
 
-            Cache.putInCache(updatedUser, USER_PREFIX);
+                Cache.putInCache(updatedUser, USER_PREFIX);
 
-            return sendResponse(OK, updatedUser.toUser());
+                return sendResponse(OK, updatedUser.toUser());
 
-        } catch (MongoException ex) {
-            return Response.status(500).entity(ex.getMessage()).build();
-        } catch (WebApplicationException ex) {
-            return handleUpdateException(ex.getResponse().getStatus(), ex.getMessage(), id);
-        }
+            } catch (MongoException ex) {
+                return Response.status(500).entity(ex.getMessage()).build();
+            } catch (WebApplicationException ex) {
+                return handleUpdateException(ex.getResponse().getStatus(), ex.getMessage(), id);
+            }
 
+        });
     }
 
     @Override
-    public Response listUsers() {
-        try {
-            var usersDocuments = db.getAll(UsersService.COLLECTION);
+    public CompletionStage<Response> listUsers(String accept) {
+        return async(() -> {
+            try {
+                return sendStream(db.getAll(UsersService.COLLECTION, UserDAO.class), accept);
 
-            var users = new ArrayList<>();
-
-            for (var doc : usersDocuments) {
-                users.add(UserDAO.fromDocument(doc));
+            } catch (MongoException ex) {
+                return Response.status(500).entity(ex.getMessage()).build();
             }
-
-            return sendResponse(OK, users);
-
-        } catch (MongoException ex) {
-            return Response.status(500).entity(ex.getMessage()).build();
-        }
+        });
     }
 
     @Override
-    public Response getUserHouses(String id, int offset) {
-        if (Validations.badParams(id))
-            return sendResponse(BAD_REQUEST, BAD_REQUEST_MSG);
-
-        try {
-            var user = Validations.userExists(id);
-            if (user != null) {
-
-                var houses = new ArrayList<>();
-
-                String key = String.format(USER_HOUSES_PREFIX, id, offset);
-                var cacheHouses = Cache.getListFromCache(key);
-                if (!cacheHouses.isEmpty()) {
-                    for (var house : cacheHouses) {
-                        houses.add(mapper.readValue(house, House.class));
+    public CompletionStage<Response> getUserHouses(String id, int offset, String cursor) {
+        return async(() -> {
+            if (Validations.badParams(id) || Validations.badCursor(cursor))
+                return sendResponse(BAD_REQUEST, BAD_REQUEST_MSG);
+
+            try {
+                var user = Validations.userExists(id);
+                if (user != null) {
+
+                    if (cursor != null) {
+                        var page = db.listUserHousesAfter(id, cursor);
+                        return sendPage(page, PageCursor.next(page, MongoDBLayer.USER_LISTS_LIMIT));
                     }
-                    return sendResponse(OK, houses);
-                }
 
-                var userHouses = db.listUserHouses(id, offset);
-                Cache.putListInCache(userHouses, key);
+                    String key = String.format(USER_HOUSES_PREFIX, id, offset);
+                    var userHouses = Cache.getList(key, House.class, () -> db.listUserHouses(id, offset),
+                            String.format(OWNER_TAG, id), OWNER_PAGES_TAG);
 
-                return sendResponse(OK, userHouses);
+                    return sendResponse(OK, userHouses);
 
-            } else
-                return sendResponse(NOT_FOUND, USER_MSG, id);
+                } else
+                    return sendResponse(NOT_FOUND, USER_MSG, id);
 
-        } catch (MongoException ex) {
-            return Response.status(500).entity(ex.getMessage()).build();
-        } catch (JsonProcessingException e) {
-            throw new RuntimeException(e);
-        }
+            } catch (MongoException ex) {
+                return Response.status(500).entity(ex.getMessage()).build();
+            } catch (JsonProcessingException e) {
+                throw new RuntimeException(e);
+            }
 
+        });
     }
 
     @Override
-    public Response getUserRentals(String id, int offset) {
-        if (Validations.badParams(id))
-            return sendResponse(BAD_REQUEST, BAD_REQUEST_MSG);
-
-        try {
-            var user = Validations.userExists(id);
-            if (user != null) {
-
-                var rentals = new ArrayList<>();
-
-                String key = String.format(USER_RENTALS_PREFIX, id, offset);
-                var cacheRentals = Cache.getListFromCache(key);
-                if (!cacheRentals.isEmpty()) {
-                    for (var house : cacheRentals) {
-                        rentals.add(mapper.readValue(house, Rental.class));
+    public CompletionStage<Response> getUserRentals(String id, int offset, String cursor) {
+        return async(() -> {
+            if (Validations.badParams(id) || Validations.badCursor(cursor))
+                return sendResponse(BAD_REQUEST, BAD_REQUEST_MSG);
+
+            try {
+                var user = Validations.userExists(id);
+                if (user != null) {
+
+                    if (cursor != null) {
+                        var page = db.listUserRentalsAfter(id, cursor);
+                        return sendPage(page, PageCursor.next(page, MongoDBLayer.USER_LISTS_LIMIT));
                     }
-                    return sendResponse(OK, rentals);
-                }
 
-                var userRentals = db.listUserRentals(id, offset);
-                Cache.putListInCache(userRentals, key);
+                    String key = String.format(USER_RENTALS_PREFIX, id, offset);
+                    var userRentals = Cache.getList(key, Rental.class, () -> db.listUserRentals(id, offset),
+                            String.format(RENTER_TAG, id), RENTER_PAGES_TAG);
 
-                return sendResponse(OK, userRentals);
+                    return sendResponse(OK, userRentals);
 
-            } else
-                return sendResponse(NOT_FOUND, USER_MSG, id);
+                } else
+                    return sendResponse(NOT_FOUND, USER_MSG, id);
 
-        } catch (MongoException ex) {
-            return Response.status(500).entity(ex.getMessage()).build();
-        } catch (JsonProcessingException e) {
-            throw new RuntimeException(e);
-        }
+            } catch (MongoException ex) {
+                return Response.status(500).entity(ex.getMessage()).build();
+            } catch (JsonProcessingException e) {
+                throw new RuntimeException(e);
+            }
 
+        });
     }
 
     private UserDAO genUpdatedUserDAO(String id, User user) throws WebApplicationException {
@@ -2,12 +2,16 @@ package scc.srv.users;
 
 import jakarta.ws.rs.*;
 import jakarta.ws.rs.core.Cookie;
+import jakarta.ws.rs.core.HttpHeaders;
 import jakarta.ws.rs.core.MediaType;
 import jakarta.ws.rs.core.Response;
 import scc.data.User;
 import scc.data.UserDAO;
 import scc.srv.authentication.Login;
 import scc.srv.authentication.Session;
+import scc.srv.utils.Utility;
+
+import java.util.concurrent.CompletionStage;
 
 
 @Path(UsersService.PATH)
@@ -23,6 +27,12 @@ public interface UsersService {
 
     String USER_RENTALS_PREFIX = "u:%s-r:-off:%s";
 
+    // Tags of the cached pages of houses by owner and of rentals by renter
+    String OWNER_TAG = "t:owner:%s";
+    String OWNER_PAGES_TAG = "t:owner";
+    String RENTER_TAG = "t:renter:%s";
+    String RENTER_PAGES_TAG = "t:renter";
+
 
     String ID = "id";
     String HOUSES = "/houses";
@@ -33,47 +43,49 @@ public interface UsersService {
 
     String OFFSET = "offset";
 
+    String CURSOR = "cursor";
+
 
     @POST
     @Path(AUTH)
     @Consumes(MediaType.APPLICATION_JSON)
     @Produces(MediaType.APPLICATION_JSON)
-    Response auth(Login credentials) throws Exception;
+    CompletionStage<Response> auth(Login credentials);
 
     @POST
     @Consumes(MediaType.APPLICATION_JSON)
     @Produces(MediaType.APPLICATION_JSON)
-    Response createUser(UserDAO userDAO) throws Exception;
+    CompletionStage<Response> createUser(UserDAO userDAO);
 
     @DELETE
     @Path("/{" + ID + "}")
     @Produces(MediaType.APPLICATION_JSON)
-    Response deleteUser(@CookieParam(Session.SESSION) Cookie session, @PathParam(ID) String id) throws Exception;
+    CompletionStage<Response> deleteUser(@CookieParam(Session.SESSION) Cookie session, @PathParam(ID) String id);
 
     @GET
     @Path("/{" + ID + "}")
     @Produces(MediaType.APPLICATION_JSON)
-    Response getUser(@PathParam(ID) String id) throws Exception;
+    CompletionStage<Response> getUser(@PathParam(ID) String id);
 
     @PUT
     @Path("/{" + ID + "}")
     @Consumes(MediaType.APPLICATION_JSON)
     @Produces(MediaType.APPLICATION_JSON)
-    Response updateUser(@CookieParam(Session.SESSION) Cookie session, @PathParam(ID) String id, User user) throws Exception;
+    CompletionStage<Response> updateUser(@CookieParam(Session.SESSION) Cookie session, @PathParam(ID) String id, User user);
 
     @GET
-    @Produces(MediaType.APPLICATION_JSON)
-    Response listUsers() throws Exception;
+    @Produces({MediaType.APPLICATION_JSON, Utility.APPLICATION_NDJSON})
+    CompletionStage<Response> listUsers(@HeaderParam(HttpHeaders.ACCEPT) String accept);
 
     @GET
     @Path("/{" + ID + "}" + HOUSES)
     @Produces(MediaType.APPLICATION_JSON)
-    Response getUserHouses(@PathParam(ID) String id, @QueryParam(OFFSET) int offset) throws Exception;
+    CompletionStage<Response> getUserHouses(@PathParam(ID) String id, @QueryParam(OFFSET) int offset, @QueryParam(CURSOR) String cursor);
 
     @GET
     @Path("/{" + ID + "}" + RENTALS)
     @Produces(MediaType.APPLICATION_JSON)
-    Response getUserRentals(@PathParam(ID) String id, @QueryParam(OFFSET) int offset);
+    CompletionStage<Response> getUserRentals(@PathParam(ID) String id, @QueryParam(OFFSET) int offset, @QueryParam(CURSOR) String cursor);
 
 }
 
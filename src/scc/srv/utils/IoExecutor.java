@@ -0,0 +1,105 @@
+package scc.srv.utils;
+
+import jakarta.ws.rs.core.Response;
+
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs the blocking work of the resources (Mongo and Redis calls) away from the servlet threads.
+ * <p>
+ * The pool and its queue are bounded, so a burst of slow requests waits in the queue instead of
+ * exhausting the container threads, and requests that do not fit in the queue are answered with 503.
+ * The sizes can be set with the IO_THREADS and IO_QUEUE_SIZE environment variables.
+ * <p>
+ * Setting IO_VIRTUAL_THREADS=true runs every request on its own virtual thread instead, when the JVM
+ * supports them (JDK 21 or newer). Concurrency is then only limited by the Redis and Mongo connection
+ * pools, which block the virtual thread without pinning its carrier.
+ */
+public class IoExecutor {
+
+    private static final String IO_THREADS = System.getenv("IO_THREADS");
+    private static final String IO_QUEUE_SIZE = System.getenv("IO_QUEUE_SIZE");
+    private static final String IO_VIRTUAL_THREADS = System.getenv("IO_VIRTUAL_THREADS");
+
+    private static final int THREADS = IO_THREADS == null ? 64 : Integer.parseInt(IO_THREADS);
+    private static final int QUEUE_SIZE = IO_QUEUE_SIZE == null ? 1024 : Integer.parseInt(IO_QUEUE_SIZE);
+
+    private static final ExecutorService executor = Boolean.parseBoolean(IO_VIRTUAL_THREADS)
+            ? virtualThreadExecutor()
+            : boundedExecutor();
+
+    private IoExecutor() {
+    }
+
+    private static ExecutorService boundedExecutor() {
+        var pool = new ThreadPoolExecutor(THREADS, THREADS, 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(QUEUE_SIZE), new NamedThreadFactory("io"));
+        pool.allowCoreThreadTimeOut(true);
+        return pool;
+    }
+
+    // Looked up reflectively so that the code still compiles and runs on JDK 17
+    private static ExecutorService virtualThreadExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return boundedExecutor();
+        }
+    }
+
+    public static Executor executor() {
+        return executor;
+    }
+
+    /**
+     * Runs the handler of a request in the pool. Exceptions thrown by the handler complete the stage
+     * as they are, so the container maps them like it would if they were thrown synchronously.
+     */
+    public static CompletionStage<Response> async(Callable<Response> handler) {
+        var response = new CompletableFuture<Response>();
+        try {
+            executor.execute(() -> {
+                try {
+                    response.complete(handler.call());
+                } catch (Throwable e) {
+                    response.completeExceptionally(e);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            response.complete(Response.status(Response.Status.SERVICE_UNAVAILABLE).build());
+        }
+        return response;
+    }
+
+    /**
+     * Runs work that the response does not wait for. If the pool is saturated it runs in the calling thread.
+     */
+    public static void background(Runnable task) {
+        try {
+            executor.execute(task);
+        } catch (RejectedExecutionException e) {
+            task.run();
+        }
+    }
+
+    public static void shutdown() {
+        executor.shutdown();
+    }
+
+    private static class NamedThreadFactory implements ThreadFactory {
+        private final String prefix;
+        private final AtomicInteger count = new AtomicInteger();
+
+        NamedThreadFactory(String prefix) {
+            this.prefix = prefix;
+        }
+
+        @Override
+        public Thread newThread(Runnable task) {
+            Thread thread = new Thread(task, prefix + "-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
@@ -1,19 +1,26 @@
 package scc.srv.utils;
 
-import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.io.SerializedString;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.mongodb.client.MongoCursor;
+import com.mongodb.client.MongoIterable;
 import jakarta.ws.rs.core.Cookie;
+import jakarta.ws.rs.core.MediaType;
 import jakarta.ws.rs.core.Response;
+import jakarta.ws.rs.core.StreamingOutput;
 import org.bson.Document;
 import scc.cache.Cache;
 import scc.srv.authentication.Session;
+import scc.srv.authentication.Sessions;
 
 import java.io.IOException;
 import java.time.Instant;
 import java.time.LocalDate;
-import java.time.ZoneId;
+import java.time.ZoneOffset;
 import java.time.format.DateTimeFormatter;
 import java.util.Date;
+import java.util.List;
 
 /**
  * Class with common check functions to validate requests input
@@ -36,6 +43,8 @@ public class Utility {
 
     public static final String INVALID_DATES = "Invalid dates.";
 
+    public static final String RENTAL_TOO_LONG = "Can't book more than %d days at once.";
+
     public static final String RENTAL_NOT_BELONG_TO_HOUSE = "Rental (%s) does not belong to this house (%s)";
 
     public static final String QUESTION_MSG = "Question";
@@ -50,6 +59,10 @@ public class Utility {
 
     public static final String RESOURCE_WAS_DELETED = "%s %s was deleted";
 
+    public static final String CONTINUATION_HEADER = "X-Continuation";
+
+    public static final String APPLICATION_NDJSON = "application/x-ndjson";
+
     private static final ObjectMapper mapper = new ObjectMapper();
 
 
@@ -64,6 +77,42 @@ public class Utility {
         return Response.status(status).entity(message).build();
     }
 
+    /**
+     * Sends a keyset paginated listing. The token to get the next page goes in the continuation header.
+     */
+    public static Response sendPage(List<?> items, String nextCursor) {
+        var response = Response.ok(items);
+        if (nextCursor != null)
+            response.header(CONTINUATION_HEADER, nextCursor);
+        return response.build();
+    }
+
+    /**
+     * Streams the items as they are read from the database, either as a JSON array or as newline
+     * delimited JSON if the client accepts it. Only the current batch of the cursor is kept in memory.
+     */
+    public static Response sendStream(MongoIterable<?> items, String accept) {
+        boolean ndjson = accept != null && accept.contains(APPLICATION_NDJSON);
+
+        StreamingOutput stream = out -> {
+            try (MongoCursor<?> cursor = items.cursor();
+                 JsonGenerator generator = mapper.getFactory().createGenerator(out)) {
+                if (ndjson)
+                    generator.setRootValueSeparator(new SerializedString("\n"));
+                else
+                    generator.writeStartArray();
+
+                while (cursor.hasNext())
+                    generator.writeObject(cursor.next());
+
+                if (!ndjson)
+                    generator.writeEndArray();
+            }
+        };
+
+        return Response.ok(stream, ndjson ? APPLICATION_NDJSON : MediaType.APPLICATION_JSON).build();
+    }
+
     public static Response processException(int statusCode, Object... params) {
         switch (statusCode) {
             case 400 -> {
@@ -97,16 +146,11 @@ public class Utility {
         if (cookie.getValue() == null)
             return sendResponse(UNAUTHORIZED, "No session initialized" + " " + cookie.getValue());
 
-        Session session = null;
-
-        String cacheRes = Cache.getCookieFromCache(Session.SESSION_PREFIX, cookie.getValue());
-
-        if (cacheRes != null)
-            session = mapper.readValue(cacheRes, Session.class);
+        // Verified locally from the signature of the token, without going to the cache
+        Session session = Sessions.verify(cookie.getValue());
 
         if (session == null)
-            return sendResponse(UNAUTHORIZED, "No valid session initialized - " + "SESSION null" + "\n" +
-                    Session.SESSION_PREFIX + cookie.getValue());
+            return sendResponse(UNAUTHORIZED, "No valid session initialized - " + "SESSION null");
 
         if (session.getId() == null)
             return sendResponse(UNAUTHORIZED, "No valid session initialized - " + "id null");
@@ -123,8 +167,18 @@ public class Utility {
 
     public static Date formatDate(String date) {
         DateTimeFormatter formatter = DateTimeFormatter.ofPattern("yyyy-MM-dd");
-        Instant start = LocalDate.parse(date, formatter).atStartOfDay(ZoneId.systemDefault()).toInstant();
-        return Date.from(start);
+        return startOf(LocalDate.parse(date, formatter));
+    }
+
+    /**
+     * The day of the date, in UTC. Rentals book whole days, so availability is always checked by day.
+     */
+    public static LocalDate dayOf(Date date) {
+        return date.toInstant().atZone(ZoneOffset.UTC).toLocalDate();
+    }
+
+    public static Date startOf(LocalDate day) {
+        return Date.from(day.atStartOfDay(ZoneOffset.UTC).toInstant());
     }
 
     public static Date formatDate(long timestamp) {
@@ -140,14 +194,4 @@ public class Utility {
             return null;
         }
     }
-
-    // Convert an object to its JSON representation
-    public static String itemToJsonString(Object item) {
-        ObjectMapper mapper = new ObjectMapper();
-        try {
-            return mapper.writeValueAsString(item);
-        } catch (JsonProcessingException e) {
-            throw new RuntimeException(e);
-        }
-    }
 }
@@ -0,0 +1,100 @@
+package scc.srv.utils;
+
+import jakarta.ws.rs.WebApplicationException;
+import jakarta.ws.rs.core.Response;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Runs independent checks of a request at the same time, so that it waits for the slowest lookup
+ * instead of the sum of all of them.
+ * <p>
+ * The first check to fail decides the error, and the checks that have not started by then are skipped.
+ * The calling thread runs the checks that the pool has not picked up yet itself, so it only ever waits
+ * for checks that are already running, and a saturated pool can not deadlock it.
+ */
+public class ValidationPipeline {
+
+    private final List<Check> checks = new ArrayList<>();
+
+    /**
+     * Adds a check that fails the request with the given message and status when the condition is false.
+     * The first check runs in the calling thread, so it should be the cheapest one.
+     */
+    public ValidationPipeline check(BooleanSupplier condition, String message, Response.Status status) {
+        checks.add(new Check(condition, message, status));
+        return this;
+    }
+
+    /**
+     * Runs all checks and throws the error of the first one that fails
+     */
+    public void run() {
+        if (checks.isEmpty())
+            return;
+
+        var outcome = new CompletableFuture<WebApplicationException>();
+        var pending = new AtomicInteger(checks.size());
+
+        for (var check : checks.subList(1, checks.size())) {
+            try {
+                IoExecutor.executor().execute(() -> check.run(outcome, pending));
+            } catch (RejectedExecutionException e) {
+                break;
+            }
+        }
+
+        for (var check : checks) {
+            if (outcome.isDone())
+                break;
+            check.run(outcome, pending);
+        }
+
+        WebApplicationException failure;
+        try {
+            failure = outcome.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException cause)
+                throw cause;
+            if (e.getCause() instanceof Error cause)
+                throw cause;
+            throw e;
+        }
+        if (failure != null)
+            throw failure;
+    }
+
+    private static class Check {
+        private final BooleanSupplier condition;
+        private final String message;
+        private final Response.Status status;
+        private final AtomicBoolean claimed = new AtomicBoolean();
+
+        Check(BooleanSupplier condition, String message, Response.Status status) {
+            this.condition = condition;
+            this.message = message;
+            this.status = status;
+        }
+
+        void run(CompletableFuture<WebApplicationException> outcome, AtomicInteger pending) {
+            if (outcome.isDone() || !claimed.compareAndSet(false, true))
+                return;
+            try {
+                if (!condition.getAsBoolean())
+                    outcome.complete(new WebApplicationException(message, status));
+                else if (pending.decrementAndGet() == 0)
+                    outcome.complete(null);
+            } catch (Throwable e) {
+                // Errors too, or the request waiting for this check would wait forever
+                outcome.completeExceptionally(e);
+            }
+        }
+    }
+}
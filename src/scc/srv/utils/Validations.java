@@ -1,28 +1,34 @@
 package scc.srv.utils;
 
-import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.JsonMappingException;
-import com.fasterxml.jackson.databind.ObjectMapper;
-import org.bson.Document;
+import org.bson.RawBsonDocument;
 import scc.cache.Cache;
 import scc.data.HouseDAO;
+import scc.data.HouseSummary;
 import scc.data.QuestionDAO;
 import scc.data.RentalDAO;
 import scc.data.UserDAO;
 import scc.db.MongoDBLayer;
+import scc.db.PageCursor;
 import scc.srv.houses.HousesService;
-import scc.srv.media.MediaResource;
+import scc.srv.media.MediaStore;
 import scc.srv.question.QuestionService;
+import scc.srv.rentals.AvailabilityIndex;
 import scc.srv.rentals.RentalService;
 import scc.srv.users.UsersService;
 
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
 import java.util.Date;
 import java.util.List;
 
 public class Validations {
 
+    // Longest rental, so that a booking reserves a bounded number of days
+    public static final int MAX_RENTAL_DAYS = 365;
+
     private static final MongoDBLayer db = MongoDBLayer.getInstance();
-    private static final ObjectMapper mapper = new ObjectMapper();
+    protected static final AvailabilityIndex availability = AvailabilityIndex.getInstance();
 
     public Validations() {
     }
@@ -34,40 +40,90 @@ public class Validations {
         return false;
     }
 
+    /**
+     * Verify if a continuation token was given and is not valid
+     */
+    protected static boolean badCursor(String cursor) {
+        return cursor != null && !cursor.isEmpty() && PageCursor.decode(cursor) == null;
+    }
+
     /**
      * Verify if house exists
      */
     protected static UserDAO userExists(String userId) {
-        try {
-            var userCache = Cache.getFromCache(UsersService.USER_PREFIX, userId);
-            if (userCache != null)
-                return mapper.readValue(userCache, UserDAO.class);
-            Document dbUser = db.get(userId, UsersService.COLLECTION);
-            if (dbUser != null) {
-                return UserDAO.fromDocument(dbUser);
-            }
-
-        } catch (JsonProcessingException ignore) {
-        }
+        var userCache = Cache.getFromCache(UsersService.USER_PREFIX, userId, UserDAO.class);
+        if (userCache != null)
+            return userCache;
+
+        RawBsonDocument dbUser = Cache.loadOnce(UsersService.USER_PREFIX + userId,
+                () -> db.getRaw(userId, UsersService.COLLECTION));
+        if (dbUser != null)
+            return db.decode(dbUser, UserDAO.class);
 
         return null;
     }
 
+    /**
+     * Verify if user exists, without loading it
+     */
+    protected static boolean hasUser(String userId) {
+        return Cache.isCached(UsersService.USER_PREFIX, userId) || db.exists(userId, UsersService.COLLECTION);
+    }
+
+    /**
+     * Verify if house exists, without loading it
+     */
+    protected static boolean hasHouse(String houseId) {
+        return Cache.isCached(HousesService.HOUSE_PREFIX, houseId) || db.exists(houseId, HousesService.COLLECTION);
+    }
+
+    /**
+     * Verify if user exists, when whether it is cached is already known
+     */
+    protected static boolean hasUser(String userId, boolean cached) {
+        return cached || db.exists(userId, UsersService.COLLECTION);
+    }
+
+    /**
+     * Verify if house exists, when whether it is cached is already known
+     */
+    protected static boolean hasHouse(String houseId, boolean cached) {
+        return cached || db.exists(houseId, HousesService.COLLECTION);
+    }
+
+    /**
+     * Get the owner of a house, or null if the house does not exist
+     */
+    protected static String houseOwner(String houseId) {
+        var cacheHouse = Cache.getFromCache(HousesService.HOUSE_PREFIX, houseId, HouseDAO.class);
+        if (cacheHouse != null)
+            return cacheHouse.getOwnerId();
+        return db.getHouseOwner(houseId);
+    }
+
+    /**
+     * Get the fields of a house shown in listings, or null if the house does not exist
+     */
+    protected static HouseSummary houseSummary(String houseId) {
+        var cacheHouse = Cache.getFromCache(HousesService.HOUSE_PREFIX, houseId, HouseDAO.class);
+        if (cacheHouse != null)
+            return new HouseSummary(cacheHouse);
+        return db.getHouseSummary(houseId);
+    }
+
     /**
      * Verify if house exists
      */
     protected static HouseDAO houseExists(String houseId) {
-        try {
-            var cacheHouse = Cache.getFromCache(HousesService.HOUSE_PREFIX, houseId);
-            if (cacheHouse != null)
-                return mapper.readValue(cacheHouse, HouseDAO.class);
-            Document dbHouse = db.get(houseId, HousesService.COLLECTION);
-            if (dbHouse != null) {
-                return HouseDAO.fromDocument(dbHouse);
-            }
-
-        } catch (JsonProcessingException ignore) {
-        }
+        var cacheHouse = Cache.getFromCache(HousesService.HOUSE_PREFIX, houseId, HouseDAO.class);
+        if (cacheHouse != null)
+            return cacheHouse;
+
+        RawBsonDocument dbHouse = Cache.loadOnce(HousesService.HOUSE_PREFIX + houseId,
+                () -> db.getRaw(houseId, HousesService.COLLECTION));
+        if (dbHouse != null)
+            return db.decode(dbHouse, HouseDAO.class);
+
         return null;
     }
 
@@ -75,17 +131,15 @@ public class Validations {
      * Verify if house exists
      */
     protected static RentalDAO rentalExists(String rentalId) {
-        try {
-            var rentalCache = Cache.getFromCache(RentalService.RENTAL_PREFIX, rentalId);
-            if (rentalCache != null)
-                return mapper.readValue(rentalCache, RentalDAO.class);
-            Document dbRental = db.get(rentalId, RentalService.COLLECTION);
-            if (dbRental != null) {
-                return RentalDAO.fromDocument(dbRental);
-            }
-
-        } catch (JsonProcessingException ignore) {
-        }
+        var rentalCache = Cache.getFromCache(RentalService.RENTAL_PREFIX, rentalId, RentalDAO.class);
+        if (rentalCache != null)
+            return rentalCache;
+
+        RawBsonDocument dbRental = Cache.loadOnce(RentalService.RENTAL_PREFIX + rentalId,
+                () -> db.getRaw(rentalId, RentalService.COLLECTION));
+        if (dbRental != null)
+            return db.decode(dbRental, RentalDAO.class);
+
         return null;
     }
 
@@ -94,18 +148,15 @@ public class Validations {
      * Verify if questiom exists
      */
     protected static QuestionDAO questionExists(String questionId) {
-        try {
-            var questionCache = Cache.getFromCache(QuestionService.QUESTION_PREFIX, questionId);
-            if (questionCache != null)
-                return mapper.readValue(questionCache, QuestionDAO.class);
-
-            Document dbQuestion = db.get(questionId, QuestionService.COLLECTION);
-            if (dbQuestion != null) {
-                return QuestionDAO.fromDocument(dbQuestion);
-            }
-
-        } catch (JsonProcessingException ignore) {
-        }
+        var questionCache = Cache.getFromCache(QuestionService.QUESTION_PREFIX, questionId, QuestionDAO.class);
+        if (questionCache != null)
+            return questionCache;
+
+        RawBsonDocument dbQuestion = Cache.loadOnce(QuestionService.QUESTION_PREFIX + questionId,
+                () -> db.getRaw(questionId, QuestionService.COLLECTION));
+        if (dbQuestion != null)
+            return db.decode(dbQuestion, QuestionDAO.class);
+
         return null;
     }
 
@@ -114,26 +165,42 @@ public class Validations {
      * Verify if media exists
      */
     protected static boolean mediaExists(List<String> mediaId) {
-        MediaResource media = new MediaResource();
-        return media.hasPhotos(mediaId) && mediaId != null && !mediaId.isEmpty();
+        return mediaId != null && !mediaId.isEmpty() && MediaStore.getInstance().containsAll(mediaId);
     }
 
     protected static boolean datesNotValid(Date initialDate, Date endDate) {
         return !initialDate.before(endDate);
     }
 
+    /**
+     * Verify if the period has more than MAX_RENTAL_DAYS days, both ends included
+     */
+    protected static boolean periodTooLong(Date initialDate, Date endDate) {
+        return ChronoUnit.DAYS.between(Utility.dayOf(initialDate), Utility.dayOf(endDate)) >= MAX_RENTAL_DAYS;
+    }
+
     /**
      * Verify if house is available
      */
     protected static boolean isAvailable(String houseId, Date start, Date end) {
-        var rentals = db.getAllHouseRentals(houseId);
+        return availability.isAvailable(houseId, start, end);
+    }
+
+    /**
+     * Keeps only the houses that are available for the whole period
+     */
+    protected static <T extends HasId> List<T> availableHouses(List<T> houses, Date start, Date end) {
+        if (houses.isEmpty())
+            return houses;
+
+        var booked = availability.bookedHouses(houses.stream().map(HasId::getId).toList(), start, end);
 
-        for (RentalDAO rental : rentals) {
-            if (!(start.after(rental.getEndDate()) || rental.getInitialDate().after(end)))
-                return false;
-        }
+        List<T> available = new ArrayList<>();
+        for (var house : houses)
+            if (!booked.contains(house.getId()))
+                available.add(house);
 
-        return true;
+        return available;
     }
 
 
@@ -3,42 +3,66 @@ package scc.utils;
 import java.math.BigInteger;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.function.Function;
 
 /**
  * Utility class that computes hashes of String, bytes, etc.
+ * <p>
+ * Digests are borrowed from a lock-free pool, so hashes are computed concurrently without any shared lock.
+ * A pool rather than a digest per thread, since in the virtual thread mode every request runs in a new
+ * thread and a per-thread digest would be created for each one.
  *
  * @author smd
  */
 public class Hash {
-    static MessageDigest md;
+    private static final String ALGORITHM = "SHA1";
 
-    static {
+    private static final Queue<MessageDigest> digests = new ConcurrentLinkedQueue<>();
+
+    public static MessageDigest newDigest() {
         try {
-            md = MessageDigest.getInstance("SHA1");
+            return MessageDigest.getInstance(ALGORITHM);
         } catch (NoSuchAlgorithmException e) {
-            // do nothing
+            throw new IllegalStateException(e);
         }
     }
 
-    synchronized public static byte[] digest(byte[] data) {
-        md.reset();
-        md.update(data);
-        return md.digest();
+    public static byte[] digest(byte[] data) {
+        return withDigest(digest -> digest.digest(data));
     }
 
     public static String of(String data) {
-        return String.format("%016X", new BigInteger(1, digest(data.getBytes())));
+        return toHex(digest(data.getBytes()));
     }
 
     public static String of(byte[] data) {
-        return String.format("%016X", new BigInteger(1, digest(data)));
+        return toHex(digest(data));
+    }
+
+    public static String of(Object... values) {
+        return toHex(withDigest(digest -> {
+            for (Object o : values)
+                digest.update(o.toString().getBytes());
+            return digest.digest();
+        }));
     }
 
-    synchronized public static String of(Object... values) {
-        md.reset();
-        for (Object o : values)
-            md.update(o.toString().getBytes());
-        return String.format("%016X", new BigInteger(1, md.digest()));
+    public static String toHex(byte[] digest) {
+        return String.format("%016X", new BigInteger(1, digest));
+    }
+
+    private static byte[] withDigest(Function<MessageDigest, byte[]> hash) {
+        var digest = digests.poll();
+        if (digest == null)
+            digest = newDigest();
+        try {
+            return hash.apply(digest);
+        } finally {
+            digest.reset();
+            digests.offer(digest);
+        }
     }
 
 }
@@ -0,0 +1,81 @@
+package scc.cache;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import scc.data.HouseDAO;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the cost of writing and reading a cached house with the JSON strings the cache used to store
+ * (LEGACY_JSON, what a Jedis String SET and GET plus Jackson cost), and with each format of the codec.
+ * A small house is stored as it is, a large one (a long description and many photos) is compressed by
+ * the SMILE format.
+ * <p>
+ * Run the main method, or org.openjdk.jmh.Main CacheCodecBenchmark with the test classpath.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class CacheCodecBenchmark {
+
+    private static final int COMPRESSION_THRESHOLD = 1024;
+
+    @Param({"LEGACY_JSON", "JSON", "SMILE"})
+    public String format;
+
+    @Param({"small", "large"})
+    public String house;
+
+    private final ObjectMapper mapper = new ObjectMapper();
+    private CacheCodec codec;
+    private HouseDAO value;
+    private byte[] encoded;
+
+    @Setup
+    public void setup() throws JsonProcessingException {
+        value = house.equals("small") ? house(1, 1) : house(40, 30);
+        if (!format.equals("LEGACY_JSON"))
+            codec = new CacheCodec(CacheCodec.Format.valueOf(format), COMPRESSION_THRESHOLD);
+        encoded = encode();
+        System.out.printf("%n%s %s house: %d bytes%n", format, house, encoded.length);
+    }
+
+    @Benchmark
+    public byte[] encode() throws JsonProcessingException {
+        if (codec == null)
+            return mapper.writeValueAsString(value).getBytes(StandardCharsets.UTF_8);
+        return codec.encode(value);
+    }
+
+    @Benchmark
+    public HouseDAO decode() throws IOException {
+        if (codec == null)
+            return mapper.readValue(new String(encoded, StandardCharsets.UTF_8), HouseDAO.class);
+        return codec.decode(encoded, HouseDAO.class);
+    }
+
+    private static HouseDAO house(int sentences, int photos) {
+        List<String> photoIds = new ArrayList<>();
+        for (int i = 0; i < photos; i++)
+            photoIds.add(String.format("%040X", i * 7919L));
+        return new HouseDAO("house-42", "Casa do Mar", "Lisbon",
+                "A bright flat with a view over the river, close to the metro. ".repeat(sentences),
+                photoIds, "owner-7", 120, 15, 38);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(CacheCodecBenchmark.class.getSimpleName()).build()).run();
+    }
+}
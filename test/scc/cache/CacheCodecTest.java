@@ -0,0 +1,88 @@
+package scc.cache;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+import scc.data.HouseDAO;
+
+import java.io.IOException;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CacheCodecTest {
+
+    private static final int THRESHOLD = 256;
+
+    private final CacheCodec smile = new CacheCodec(CacheCodec.Format.SMILE, THRESHOLD);
+    private final CacheCodec json = new CacheCodec(CacheCodec.Format.JSON, THRESHOLD);
+
+    @Test
+    void smallValueRoundTripsUncompressed() throws IOException {
+        var house = house("short");
+        byte[] data = smile.encode(house);
+
+        assertEquals(1, data[0], "plain smile format byte");
+        assertSameHouse(house, smile.decode(data, HouseDAO.class));
+    }
+
+    @Test
+    void largeValueRoundTripsCompressed() throws IOException {
+        var house = house("a long description ".repeat(100));
+        byte[] data = smile.encode(house);
+
+        assertEquals(2, data[0], "deflated smile format byte");
+        assertTrue(data.length < house.getDescription().length(), "compressed below the text it holds");
+        assertSameHouse(house, smile.decode(data, HouseDAO.class));
+    }
+
+    @Test
+    void readsLegacyJson() throws IOException {
+        var house = house("written by a previous version");
+        byte[] legacy = new ObjectMapper().writeValueAsString(house).getBytes();
+
+        assertSameHouse(house, smile.decode(legacy, HouseDAO.class));
+    }
+
+    @Test
+    void jsonFormatWritesPlainJson() throws IOException {
+        var house = house("for the azure functions");
+        byte[] data = json.encode(house);
+
+        assertEquals('{', data[0]);
+        assertSameHouse(house, new ObjectMapper().readValue(data, HouseDAO.class));
+        assertSameHouse(house, smile.decode(data, HouseDAO.class));
+    }
+
+    @Test
+    void readsValuesWrittenInEitherFormat() throws IOException {
+        var house = house("mixed replicas");
+        assertSameHouse(house, json.decode(smile.encode(house), HouseDAO.class));
+        assertSameHouse(house, smile.decode(json.encode(house), HouseDAO.class));
+    }
+
+    @Test
+    void emptyValueFails() {
+        assertThrows(IOException.class, () -> smile.decode(new byte[0], HouseDAO.class));
+    }
+
+    @Test
+    void corruptValueFails() {
+        assertThrows(IOException.class, () -> smile.decode(new byte[]{2, 1, 2, 3}, HouseDAO.class));
+    }
+
+    private static HouseDAO house(String description) {
+        return new HouseDAO("h1", "house", "Lisbon", description, List.of("p1", "p2"), "owner", 100, 10, 3);
+    }
+
+    private static void assertSameHouse(HouseDAO expected, HouseDAO actual) {
+        assertEquals(expected.getId(), actual.getId());
+        assertEquals(expected.getName(), actual.getName());
+        assertEquals(expected.getLocation(), actual.getLocation());
+        assertEquals(expected.getDescription(), actual.getDescription());
+        assertEquals(expected.getPhotosIds(), actual.getPhotosIds());
+        assertEquals(expected.getOwnerId(), actual.getOwnerId());
+        assertEquals(expected.getPrice(), actual.getPrice());
+        assertEquals(expected.getDiscount(), actual.getDiscount());
+        assertEquals(expected.getRentalsCounter(), actual.getRentalsCounter());
+    }
+}
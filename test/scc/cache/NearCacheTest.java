@@ -0,0 +1,109 @@
+package scc.cache;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class NearCacheTest {
+
+    private static final String PREFIX = "h:";
+
+    @Test
+    void evictsLeastRecentlyUsedOverTheSizeLimit() {
+        // Each entry is a 4 character key and 6 bytes, so three fit
+        var cache = new NearCache(30, 60_000);
+        cache.put(PREFIX + "a", new byte[6]);
+        cache.put(PREFIX + "b", new byte[6]);
+        cache.put(PREFIX + "c", new byte[6]);
+        assertNotNull(cache.get(PREFIX, "a"));
+
+        cache.put(PREFIX + "d", new byte[6]);
+
+        assertNotNull(cache.get(PREFIX, "a"), "recently read, kept");
+        assertNull(cache.get(PREFIX, "b"), "least recently used, evicted");
+        assertNotNull(cache.get(PREFIX, "c"));
+        assertNotNull(cache.get(PREFIX, "d"));
+    }
+
+    @Test
+    void replacingAValueDoesNotCountItTwice() {
+        var cache = new NearCache(30, 60_000);
+        cache.put(PREFIX + "a", new byte[6]);
+        cache.put(PREFIX + "b", new byte[6]);
+        cache.put(PREFIX + "a", new byte[6]);
+        cache.put(PREFIX + "c", new byte[6]);
+
+        assertNotNull(cache.get(PREFIX, "a"));
+        assertNotNull(cache.get(PREFIX, "b"));
+        assertNotNull(cache.get(PREFIX, "c"));
+    }
+
+    @Test
+    void entriesExpire() throws InterruptedException {
+        var cache = new NearCache(1024, 50);
+        cache.put(PREFIX + "a", new byte[1]);
+        assertNotNull(cache.get(PREFIX, "a"));
+
+        Thread.sleep(100);
+
+        assertNull(cache.get(PREFIX, "a"));
+    }
+
+    @Test
+    void countsHitsAndMissesPerPrefix() {
+        var cache = new NearCache(1024, 60_000);
+        cache.put(PREFIX + "a", new byte[1]);
+        cache.get(PREFIX, "a");
+        cache.get(PREFIX, "a");
+        cache.get(PREFIX, "b");
+        cache.get("u:", "a");
+
+        assertEquals(2, cache.getStats().get(PREFIX).getHits());
+        assertEquals(1, cache.getStats().get(PREFIX).getMisses());
+        assertEquals(1, cache.getStats().get("u:").getMisses());
+    }
+
+    @Test
+    void invalidationDropsTheEntry() {
+        var cache = new NearCache(1024, 60_000);
+        cache.put(PREFIX + "a", new byte[1]);
+        cache.put(PREFIX + "b", new byte[1]);
+
+        cache.invalidate(PREFIX + "a");
+
+        assertNull(cache.get(PREFIX, "a"));
+        assertNotNull(cache.get(PREFIX, "b"));
+    }
+
+    @Test
+    void valueReadBeforeAnInvalidationIsNotCached() {
+        var cache = new NearCache(1024, 60_000);
+        long version = cache.version();
+
+        cache.invalidate(PREFIX + "a");
+        cache.putIfUnchanged(PREFIX + "a", new byte[1], version);
+
+        assertNull(cache.get(PREFIX, "a"));
+    }
+
+    @Test
+    void valueReadWithoutInvalidationsIsCached() {
+        var cache = new NearCache(1024, 60_000);
+        long version = cache.version();
+
+        cache.putIfUnchanged(PREFIX + "a", new byte[1], version);
+
+        assertNotNull(cache.get(PREFIX, "a"));
+    }
+
+    @Test
+    void clearCountsAsAnInvalidation() {
+        var cache = new NearCache(1024, 60_000);
+        long version = cache.version();
+
+        cache.clear();
+        cache.putIfUnchanged(PREFIX + "a", new byte[1], version);
+
+        assertNull(cache.get(PREFIX, "a"));
+    }
+}
@@ -0,0 +1,118 @@
+package scc.cache;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SingleFlightTest {
+
+    private static final int CALLERS = 8;
+
+    private final SingleFlight flight = new SingleFlight();
+
+    @Test
+    void concurrentCallersShareOneLoad() throws Exception {
+        var loads = new AtomicInteger();
+        var release = new CountDownLatch(1);
+        var started = new CountDownLatch(1);
+
+        ExecutorService pool = Executors.newFixedThreadPool(CALLERS);
+        try {
+            Future<?>[] results = new Future<?>[CALLERS];
+            results[0] = pool.submit(() -> flight.load("k", () -> {
+                loads.incrementAndGet();
+                started.countDown();
+                await(release);
+                return "value";
+            }));
+            assertTrue(started.await(5, TimeUnit.SECONDS));
+
+            for (int i = 1; i < CALLERS; i++)
+                results[i] = pool.submit(() -> flight.load("k", () -> {
+                    loads.incrementAndGet();
+                    return "other";
+                }));
+            // Lets the waiters join the flight before it completes
+            Thread.sleep(100);
+            release.countDown();
+
+            for (var result : results)
+                assertEquals("value", result.get(5, TimeUnit.SECONDS));
+            assertEquals(1, loads.get());
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    @Test
+    void loadsAgainOnceTheFlightLands() {
+        var loads = new AtomicInteger();
+        flight.load("k", loads::incrementAndGet);
+        flight.load("k", loads::incrementAndGet);
+
+        assertEquals(2, loads.get());
+    }
+
+    @Test
+    void differentKeysDoNotShare() {
+        assertEquals("a", flight.load("a", () -> "a"));
+        assertEquals("b", flight.load("b", () -> "b"));
+    }
+
+    @Test
+    void failureReachesEveryCaller() throws Exception {
+        assertFailureReachesWaiters(new IllegalStateException("load failed"));
+    }
+
+    @Test
+    void errorReachesEveryCallerInsteadOfHangingThem() throws Exception {
+        assertFailureReachesWaiters(new StackOverflowError());
+    }
+
+    private void assertFailureReachesWaiters(Throwable failure) throws Exception {
+        var release = new CountDownLatch(1);
+        var started = new CountDownLatch(1);
+
+        ExecutorService pool = Executors.newFixedThreadPool(2);
+        try {
+            Future<?> leader = pool.submit(() -> flight.load("k", () -> {
+                started.countDown();
+                await(release);
+                throw sneaky(failure);
+            }));
+            assertTrue(started.await(5, TimeUnit.SECONDS));
+            Future<?> waiter = pool.submit(() -> flight.load("k", () -> "not run"));
+            Thread.sleep(100);
+            release.countDown();
+
+            for (var result : new Future<?>[]{leader, waiter}) {
+                var thrown = assertThrows(java.util.concurrent.ExecutionException.class,
+                        () -> result.get(5, TimeUnit.SECONDS));
+                assertSame(failure, thrown.getCause());
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static RuntimeException sneaky(Throwable failure) {
+        if (failure instanceof Error error)
+            throw error;
+        return (RuntimeException) failure;
+    }
+}
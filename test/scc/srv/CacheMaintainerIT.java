@@ -0,0 +1,193 @@
+package scc.srv;
+
+import com.mongodb.MongoClient;
+import com.mongodb.MongoClientURI;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.model.Filters;
+import org.bson.Document;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfEnvironmentVariable;
+import redis.clients.jedis.Jedis;
+import scc.cache.Cache;
+import scc.data.HouseDAO;
+import scc.data.House;
+import scc.db.MongoDBLayer;
+import scc.srv.houses.HousesService;
+
+import java.util.List;
+import java.util.UUID;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Runs the cache maintainer against a real single-node replica set and Redis, for instance:
+ * <pre>
+ * docker run -d --name mongo-rs -p 27017:27017 mongo:6 --replSet rs0
+ * docker exec mongo-rs mongosh --eval "rs.initiate()"
+ * docker run -d -p 6379:6379 redis
+ * MONGO_DB_SERVICE=localhost MONGO_DB_PORT=27017 REDIS=localhost REDIS_PORT=6379 mvn verify
+ * </pre>
+ * It is skipped when MONGO_DB_SERVICE is not set.
+ */
+@EnabledIfEnvironmentVariable(named = "MONGO_DB_SERVICE", matches = ".+")
+class CacheMaintainerIT {
+
+    // Generous, since a test may run while the backlog of another is still being applied
+    private static final long TIMEOUT = 60000;
+    private static final int BACKLOG = 5000;
+
+    // Every house of a run is in a location of its own, so runs do not see each other's pages
+    private static final String RUN = "it-" + UUID.randomUUID();
+
+    private static MongoClient client;
+    private static MongoCollection<Document> houses;
+    private static MongoDBLayer db;
+    private static CacheMaintainer maintainer;
+
+    @BeforeAll
+    static void start() throws InterruptedException {
+        client = new MongoClient(new MongoClientURI(MongoDBLayer.CONNECTION_STRING));
+        houses = client.getDatabase(MongoDBLayer.DATABASE_NAME).getCollection(HousesService.COLLECTION);
+        db = MongoDBLayer.getInstance();
+        db.initializeCollections();
+
+        // Starts at the current end of the stream, and the saved position tells when it is being followed
+        Cache.delete(CacheMaintainer.RESUME_TOKEN_KEY);
+        maintainer = CacheMaintainer.getInstance();
+        maintainer.start();
+        awaitLeader();
+        await("stream followed", () -> Cache.getValue(CacheMaintainer.RESUME_TOKEN_KEY) != null);
+    }
+
+    @AfterAll
+    static void stop() {
+        maintainer.stop();
+        houses.deleteMany(Filters.regex(HousesService.LOCATION, "^" + RUN));
+        client.close();
+    }
+
+    @Test
+    void insertDropsThePagesOfTheLocation() throws InterruptedException {
+        String location = RUN + "-insert";
+        String page = cachePage(location);
+
+        var house = create(location);
+
+        await("page dropped after the insert", () -> !exists(page));
+
+        long ttl = ttl(shadowKeyOf(house.getId()));
+        assertTrue(ttl > 0 && ttl <= CacheMaintainer.SHADOW_EXPIRE_TIME, "shadow expires, ttl " + ttl);
+    }
+
+    @Test
+    void deleteDropsOnlyThePagesOfTheDeletedHouse() throws InterruptedException {
+        String location = RUN + "-delete";
+        var house = create(location);
+        String shadow = shadowKeyOf(house.getId());
+        await("shadow written", () -> exists(shadow));
+
+        String page = cachePage(location);
+        String otherPage = cachePage(RUN + "-untouched");
+
+        db.delete(house.getId(), HousesService.COLLECTION);
+
+        await("page dropped after the delete", () -> !exists(page));
+        await("shadow removed", () -> !exists(shadow));
+        assertTrue(exists(otherPage), "the delete event carries no document, the shadow decides which pages go");
+    }
+
+    @Test
+    void resumesFromTheSavedPosition() throws InterruptedException {
+        String location = RUN + "-resume";
+        maintainer.stop();
+        assertNull(Cache.getValue(CacheMaintainer.LEASE_KEY), "lease released on stop");
+
+        String page = cachePage(location);
+        create(location);
+        assertTrue(exists(page));
+
+        maintainer.start();
+        awaitLeader();
+        await("change made while stopped is applied", () -> !exists(page));
+    }
+
+    @Test
+    void keepsTheLeaseThroughABacklog() throws InterruptedException {
+        maintainer.stop();
+        for (int i = 0; i < BACKLOG; i++)
+            create(RUN + "-backlog-" + (i % 50));
+        maintainer.start();
+        awaitLeader();
+
+        String leader = Cache.getValue(CacheMaintainer.LEASE_KEY);
+        String other = UUID.randomUUID().toString();
+        long until = System.currentTimeMillis() + 2 * CacheMaintainer.LEASE_TIME;
+        while (System.currentTimeMillis() < until) {
+            boolean taken = Cache.acquireLease(CacheMaintainer.LEASE_KEY, other, CacheMaintainer.LEASE_TIME);
+            if (taken)
+                Cache.releaseLease(CacheMaintainer.LEASE_KEY, other);
+            assertFalse(taken, "another replica took the lease while the backlog was applied");
+            assertEquals(leader, Cache.getValue(CacheMaintainer.LEASE_KEY));
+            Thread.sleep(500);
+        }
+    }
+
+    private static HouseDAO create(String location) {
+        var house = new HouseDAO(UUID.randomUUID().toString(), "house", location, "description", List.of(),
+                "owner-" + RUN, 100, 0, 0);
+        db.create(house, HousesService.COLLECTION);
+        return house;
+    }
+
+    /**
+     * Caches a page of houses of the location, tagged like the resources tag it
+     */
+    private static String cachePage(String location) throws InterruptedException {
+        String key = String.format(HousesService.HOUSES_BY_LOCATION_PREFIX, location, 0);
+        var house = new House(UUID.randomUUID().toString(), "house", location, "description", List.of(),
+                "owner-" + RUN, 100, 0, 0);
+        try {
+            Cache.loadList(key, () -> List.of(house), String.format(HousesService.LOCATION_TAG, location),
+                    HousesService.LOCATION_PAGES_TAG);
+        } catch (Exception e) {
+            fail(e);
+        }
+        await("page cached", () -> exists(key));
+        return key;
+    }
+
+    private static String shadowKeyOf(String houseId) {
+        var document = houses.find(Filters.eq(HousesService.ID, houseId)).first();
+        assertNotNull(document);
+        return String.format(CacheMaintainer.SHADOW_PREFIX, HousesService.COLLECTION)
+                + document.getObjectId("_id").toHexString();
+    }
+
+    private static boolean exists(String key) {
+        try (Jedis jedis = Cache.getCachePool().getResource()) {
+            return jedis.exists(key);
+        }
+    }
+
+    private static long ttl(String key) {
+        try (Jedis jedis = Cache.getCachePool().getResource()) {
+            return jedis.ttl(key);
+        }
+    }
+
+    private static void awaitLeader() throws InterruptedException {
+        await("maintainer holds the lease", () -> Cache.getValue(CacheMaintainer.LEASE_KEY) != null);
+    }
+
+    private static void await(String what, BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + TIMEOUT;
+        while (!condition.getAsBoolean()) {
+            if (System.currentTimeMillis() > deadline)
+                fail("Timed out waiting: " + what);
+            Thread.sleep(100);
+        }
+    }
+}
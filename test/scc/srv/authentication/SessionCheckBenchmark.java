@@ -0,0 +1,76 @@
+package scc.srv.authentication;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import redis.clients.jedis.Jedis;
+import scc.cache.Cache;
+
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the cost of checking the session of a request before and after signed tokens: a Redis GET of
+ * the session record plus parsing it, which is what every authenticated request used to do, against
+ * verifying the token locally.
+ * <p>
+ * It needs Redis, so REDIS, REDIS_PORT and SESSION_SECRET must be set. Against a local Redis the GET is
+ * a loopback round trip, so the difference is smaller than against the cache of a deployment.
+ * Run the main method, or org.openjdk.jmh.Main SessionCheckBenchmark with the test classpath.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class SessionCheckBenchmark {
+
+    private static final String RECORD_PREFIX = "bench:s:";
+
+    private final ObjectMapper mapper = new ObjectMapper();
+
+    private String recordKey;
+    private String token;
+
+    @Setup
+    public void setup() throws JsonProcessingException {
+        var session = new Session(UUID.randomUUID().toString(), "user-42", System.currentTimeMillis() + 3600_000);
+        recordKey = RECORD_PREFIX + session.getSessionId();
+        try (Jedis jedis = Cache.getCachePool().getResource()) {
+            jedis.setex(recordKey, 3600, mapper.writeValueAsString(session));
+        }
+        Sessions.start();
+        token = Sessions.issue(session.getId());
+        if (Sessions.verify(token) == null)
+            throw new IllegalStateException("Token not verified");
+    }
+
+    @TearDown
+    public void tearDown() {
+        try (Jedis jedis = Cache.getCachePool().getResource()) {
+            jedis.del(recordKey);
+        }
+    }
+
+    @Benchmark
+    public Session cachedRecord() throws JsonProcessingException {
+        String record;
+        try (Jedis jedis = Cache.getCachePool().getResource()) {
+            record = jedis.get(recordKey);
+        }
+        return mapper.readValue(record, Session.class);
+    }
+
+    @Benchmark
+    public Session signedToken() {
+        return Sessions.verify(token);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(SessionCheckBenchmark.class.getSimpleName()).build()).run();
+    }
+}
@@ -0,0 +1,68 @@
+package scc.srv.authentication;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TokenSignerTest {
+
+    private static final long NOW = 1_700_000_000_000L;
+
+    private final TokenSigner signer = new TokenSigner("secret".getBytes(StandardCharsets.UTF_8));
+
+    @Test
+    void verifiesItsOwnTokens() {
+        var session = new Session("s1", "alice", NOW + 1000);
+
+        var verified = signer.verify(signer.sign(session), NOW);
+
+        assertNotNull(verified);
+        assertEquals("s1", verified.getSessionId());
+        assertEquals("alice", verified.getId());
+        assertEquals(NOW + 1000, verified.getExpiresAt());
+    }
+
+    @Test
+    void userIdsMayHoldTheSeparator() {
+        var verified = signer.verify(signer.sign(new Session("s1", "a.b c", NOW + 1000)), NOW);
+        assertEquals("a.b c", verified.getId());
+    }
+
+    @Test
+    void rejectsExpiredTokens() {
+        String token = signer.sign(new Session("s1", "alice", NOW));
+
+        assertNotNull(signer.verify(token, NOW));
+        assertNull(signer.verify(token, NOW + 1));
+    }
+
+    @Test
+    void rejectsTokensSignedWithAnotherKey() {
+        var other = new TokenSigner("other".getBytes(StandardCharsets.UTF_8));
+        assertNull(signer.verify(other.sign(new Session("s1", "alice", NOW + 1000)), NOW));
+    }
+
+    @Test
+    void rejectsTamperedTokens() {
+        String token = signer.sign(new Session("s1", "alice", NOW + 1000));
+        String payload = token.substring(0, token.lastIndexOf('.'));
+        String signature = token.substring(token.lastIndexOf('.'));
+
+        String longer = payload.substring(0, payload.lastIndexOf('.') + 1) + (NOW + 999_999) + signature;
+        assertNull(signer.verify(longer, NOW), "extended expiry");
+
+        String admin = signer.sign(new Session("s1", "admin", NOW + 1000));
+        assertNull(signer.verify(admin.substring(0, admin.lastIndexOf('.')) + signature, NOW), "other user");
+    }
+
+    @Test
+    void rejectsMalformedTokens() {
+        assertNull(signer.verify(null, NOW));
+        assertNull(signer.verify("", NOW));
+        assertNull(signer.verify("no-separator", NOW));
+        assertNull(signer.verify("a.b.c.!!!", NOW));
+        assertNull(signer.verify("a.b.", NOW));
+    }
+}
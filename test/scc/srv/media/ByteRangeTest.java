@@ -0,0 +1,61 @@
+package scc.srv.media;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ByteRangeTest {
+
+    private static final long SIZE = 1000;
+
+    @Test
+    void closedRange() {
+        var range = MediaResource.ByteRange.parse("bytes=100-199", SIZE);
+        assertEquals(new MediaResource.ByteRange(100, 199), range);
+        assertTrue(range.satisfiable(SIZE));
+        assertEquals(100, range.length());
+    }
+
+    @Test
+    void openRangeGoesToTheEnd() {
+        assertEquals(new MediaResource.ByteRange(900, 999), MediaResource.ByteRange.parse("bytes=900-", SIZE));
+    }
+
+    @Test
+    void endPastTheFileIsClamped() {
+        assertEquals(new MediaResource.ByteRange(900, 999), MediaResource.ByteRange.parse("bytes=900-5000", SIZE));
+    }
+
+    @Test
+    void suffixRangeIsTheLastBytes() {
+        assertEquals(new MediaResource.ByteRange(800, 999), MediaResource.ByteRange.parse("bytes=-200", SIZE));
+        assertEquals(new MediaResource.ByteRange(0, 999), MediaResource.ByteRange.parse("bytes=-5000", SIZE));
+    }
+
+    @Test
+    void emptySuffixIsNotSatisfiable() {
+        assertFalse(MediaResource.ByteRange.parse("bytes=-0", SIZE).satisfiable(SIZE));
+    }
+
+    @Test
+    void startPastTheFileIsNotSatisfiable() {
+        assertFalse(MediaResource.ByteRange.parse("bytes=1000-", SIZE).satisfiable(SIZE));
+        assertFalse(MediaResource.ByteRange.parse("bytes=1000-1500", SIZE).satisfiable(SIZE));
+    }
+
+    @Test
+    void lastBeforeFirstIsIgnored() {
+        assertNull(MediaResource.ByteRange.parse("bytes=5-3", SIZE));
+        assertNull(MediaResource.ByteRange.parse("bytes=500-400", SIZE));
+        assertNull(MediaResource.ByteRange.parse("bytes=5000-3000", SIZE));
+    }
+
+    @Test
+    void unsupportedOrMalformedHeadersServeTheWholeFile() {
+        assertNull(MediaResource.ByteRange.parse(null, SIZE));
+        assertNull(MediaResource.ByteRange.parse("items=0-10", SIZE));
+        assertNull(MediaResource.ByteRange.parse("bytes=0-10,20-30", SIZE));
+        assertNull(MediaResource.ByteRange.parse("bytes=10", SIZE));
+        assertNull(MediaResource.ByteRange.parse("bytes=a-b", SIZE));
+    }
+}
@@ -0,0 +1,125 @@
+package scc.srv.media;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MediaCacheTest {
+
+    // Files of up to an eighth of the cache are admitted, so it holds eight of these
+    private static final int MAX_SIZE = 8 * 1024;
+    private static final int FILE_SIZE = 1024;
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void disabledWithoutASize() throws IOException {
+        var cache = new MediaCache(0);
+        assertFalse(cache.isEnabled());
+        assertNull(cache.load("a", file("a", FILE_SIZE), FILE_SIZE));
+        assertNull(cache.get("a"));
+    }
+
+    @Test
+    void servesTheContentOfLoadedFiles() throws IOException {
+        var cache = new MediaCache(MAX_SIZE);
+        Path path = file("a", FILE_SIZE);
+
+        assertEquals(ByteBuffer.wrap(Files.readAllBytes(path)), cache.load("a", path, FILE_SIZE));
+        assertEquals(ByteBuffer.wrap(Files.readAllBytes(path)), cache.get("a"));
+    }
+
+    @Test
+    void doesNotAdmitLargeFiles() throws IOException {
+        var cache = new MediaCache(MAX_SIZE);
+        int size = MAX_SIZE / 8 + 1;
+        assertNull(cache.load("big", file("big", size), size));
+    }
+
+    @Test
+    void admitsAPopularFileOverAnUnpopularOne() throws IOException {
+        var cache = fill(new MediaCache(MAX_SIZE));
+
+        for (int i = 0; i < 3; i++)
+            cache.get("popular");
+        assertNotNull(cache.load("popular", file("popular", FILE_SIZE), FILE_SIZE));
+
+        assertNotNull(cache.get("popular"));
+        assertNull(cache.get("f0"), "the least recently used file made room");
+        assertEquals(8, cache.getStats().files());
+    }
+
+    @Test
+    void oneOffFileDoesNotEvictPopularOnes() throws IOException {
+        var cache = fill(new MediaCache(MAX_SIZE));
+        for (int i = 0; i < 8; i++)
+            for (int j = 0; j < 3; j++)
+                cache.get("f" + i);
+
+        assertNull(cache.load("once", file("once", FILE_SIZE), FILE_SIZE));
+
+        for (int i = 0; i < 8; i++)
+            assertNotNull(cache.get("f" + i));
+    }
+
+    @Test
+    void evictsNothingWhenTheFileStillWouldNotFit() throws IOException {
+        var cache = new MediaCache(MAX_SIZE);
+        // A small unpopular file and popular ones that fill the rest, so evicting the unpopular one is not enough
+        int small = FILE_SIZE / 4;
+        cache.load("small", file("small", small), small);
+        for (int i = 0; i < 8; i++) {
+            int size = i < 7 ? FILE_SIZE : FILE_SIZE - small;
+            for (int j = 0; j < 5; j++)
+                cache.get("f" + i);
+            assertNotNull(cache.load("f" + i, file("f" + i, size), size));
+        }
+        assertEquals(MAX_SIZE, cache.getStats().residentBytes());
+        for (int j = 0; j < 3; j++)
+            cache.get("new");
+
+        cache.load("new", file("new", FILE_SIZE), FILE_SIZE);
+
+        assertNotNull(cache.get("small"), "not evicted for a file that was rejected anyway");
+        assertNull(cache.get("new"));
+        assertEquals(MAX_SIZE, cache.getStats().residentBytes());
+    }
+
+    @Test
+    void countsHitsAndMisses() throws IOException {
+        var cache = new MediaCache(MAX_SIZE);
+        cache.get("a");
+        cache.load("a", file("a", FILE_SIZE), FILE_SIZE);
+        cache.get("a");
+        cache.get("a");
+
+        var stats = cache.getStats();
+        assertEquals(2, stats.hits());
+        assertEquals(1, stats.misses());
+        assertEquals(FILE_SIZE, stats.residentBytes());
+        assertEquals(2.0 / 3, stats.hitRatio(), 1e-9);
+    }
+
+    /**
+     * Fills the cache with eight files, f0 being the least recently used
+     */
+    private MediaCache fill(MediaCache cache) throws IOException {
+        for (int i = 0; i < 8; i++)
+            assertNotNull(cache.load("f" + i, file("f" + i, FILE_SIZE), FILE_SIZE));
+        return cache;
+    }
+
+    private Path file(String name, int size) throws IOException {
+        byte[] content = new byte[size];
+        for (int i = 0; i < size; i++)
+            content[i] = (byte) (name.hashCode() + i);
+        return Files.write(dir.resolve(name), content);
+    }
+}
@@ -0,0 +1,103 @@
+package scc.srv.rentals;
+
+import org.junit.jupiter.api.Test;
+import scc.data.RentalDAO;
+
+import java.time.Instant;
+import java.util.Date;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class BookingsTest {
+
+    @Test
+    void noBookingsOverlapNothing() {
+        assertFalse(new Bookings().overlaps(day("2024-05-01"), day("2024-05-31")));
+    }
+
+    @Test
+    void overlapsAPeriodThatSharesADay() {
+        var bookings = bookings(rental("r1", "2024-05-10", "2024-05-15"));
+
+        assertTrue(bookings.overlaps(day("2024-05-12"), day("2024-05-13")), "inside");
+        assertTrue(bookings.overlaps(day("2024-05-01"), day("2024-05-31")), "around");
+        assertTrue(bookings.overlaps(day("2024-05-01"), day("2024-05-10")), "ends on the first day");
+        assertTrue(bookings.overlaps(day("2024-05-15"), day("2024-05-20")), "starts on the last day");
+        assertFalse(bookings.overlaps(day("2024-05-01"), day("2024-05-09")), "before");
+        assertFalse(bookings.overlaps(day("2024-05-16"), day("2024-05-20")), "after");
+    }
+
+    @Test
+    void checksTheBookingThatStartsClosestBeforeTheEnd() {
+        var bookings = bookings(
+                rental("r1", "2024-05-01", "2024-05-05"),
+                rental("r2", "2024-05-10", "2024-05-12"),
+                rental("r3", "2024-05-20", "2024-05-25"));
+
+        assertFalse(bookings.overlaps(day("2024-05-13"), day("2024-05-19")), "the gap between r2 and r3");
+        assertFalse(bookings.overlaps(day("2024-05-06"), day("2024-05-09")), "the gap between r1 and r2");
+        assertTrue(bookings.overlaps(day("2024-05-04"), day("2024-05-06")));
+        assertTrue(bookings.overlaps(day("2024-05-13"), day("2024-05-20")));
+    }
+
+    @Test
+    void comparesWholeUtcDays() {
+        var bookings = bookings(new RentalDAO("r1", "h1", "u1", 100,
+                at("2024-05-10T23:00:00Z"), at("2024-05-12T01:00:00Z")));
+
+        assertTrue(bookings.overlaps(at("2024-05-12T22:00:00Z"), at("2024-05-14T00:00:00Z")),
+                "a later hour of the last day is still that day");
+        assertFalse(bookings.overlaps(at("2024-05-13T00:00:00Z"), at("2024-05-14T00:00:00Z")));
+    }
+
+    @Test
+    void removedBookingNoLongerOverlaps() {
+        var rental = rental("r1", "2024-05-10", "2024-05-15");
+        var bookings = bookings(rental);
+
+        bookings.remove(rental);
+
+        assertFalse(bookings.overlaps(day("2024-05-12"), day("2024-05-13")));
+    }
+
+    @Test
+    void bookingsThatStartOnTheSameDayAreKeptApart() {
+        var first = rental("r1", "2024-05-10", "2024-05-11");
+        var second = rental("r2", "2024-05-10", "2024-05-11");
+        var bookings = bookings(first, second);
+
+        bookings.remove(first);
+
+        assertTrue(bookings.overlaps(day("2024-05-11"), day("2024-05-11")));
+    }
+
+    @Test
+    void longBookingOverlappedByAShorterOneIsStillChecked() {
+        var bookings = bookings(
+                rental("r1", "2024-05-01", "2024-05-20"),
+                rental("r2", "2024-05-05", "2024-05-06"));
+
+        assertTrue(bookings.overlaps(day("2024-05-10"), day("2024-05-10")), "inside r1, after r2");
+        assertTrue(bookings.overlaps(day("2024-05-15"), day("2024-05-25")), "the end of r1");
+        assertFalse(bookings.overlaps(day("2024-05-21"), day("2024-05-25")));
+    }
+
+    private static Bookings bookings(RentalDAO... rentals) {
+        var bookings = new Bookings();
+        for (var rental : rentals)
+            bookings.add(rental);
+        return bookings;
+    }
+
+    private static RentalDAO rental(String id, String start, String end) {
+        return new RentalDAO(id, "h1", "u1", 100, day(start), day(end));
+    }
+
+    private static Date day(String date) {
+        return at(date + "T00:00:00Z");
+    }
+
+    private static Date at(String instant) {
+        return Date.from(Instant.parse(instant));
+    }
+}
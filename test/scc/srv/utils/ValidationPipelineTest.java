@@ -0,0 +1,81 @@
+package scc.srv.utils;
+
+import jakarta.ws.rs.WebApplicationException;
+import jakarta.ws.rs.core.Response;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ValidationPipelineTest {
+
+    private static final Duration TIMEOUT = Duration.ofSeconds(5);
+
+    @Test
+    void passesWhenEveryCheckHolds() {
+        var ran = new AtomicInteger();
+        assertTimeoutPreemptively(TIMEOUT, () -> new ValidationPipeline()
+                .check(() -> ran.incrementAndGet() > 0, "a", Response.Status.NOT_FOUND)
+                .check(() -> ran.incrementAndGet() > 0, "b", Response.Status.NOT_FOUND)
+                .check(() -> ran.incrementAndGet() > 0, "c", Response.Status.NOT_FOUND)
+                .run());
+        assertEquals(3, ran.get());
+    }
+
+    @Test
+    void failingCheckDecidesTheError() {
+        var thrown = assertThrows(WebApplicationException.class, () -> assertTimeoutPreemptively(TIMEOUT,
+                () -> new ValidationPipeline()
+                        .check(() -> true, "a", Response.Status.NOT_FOUND)
+                        .check(() -> false, "b", Response.Status.FORBIDDEN)
+                        .run()));
+        assertEquals("b", thrown.getMessage());
+        assertEquals(403, thrown.getResponse().getStatus());
+    }
+
+    @Test
+    void runtimeExceptionInAPooledCheckReachesTheCaller() {
+        assertFailureInPooledCheckReachesTheCaller(new IllegalStateException("lookup failed"));
+    }
+
+    @Test
+    void errorInAPooledCheckReachesTheCallerInsteadOfHangingIt() {
+        assertFailureInPooledCheckReachesTheCaller(new StackOverflowError());
+    }
+
+    /**
+     * The first check, in the calling thread, waits until the second one has started in the pool, so the
+     * failure is thrown there
+     */
+    private void assertFailureInPooledCheckReachesTheCaller(Throwable failure) {
+        var started = new CountDownLatch(1);
+        var pipeline = new ValidationPipeline()
+                .check(() -> await(started), "a", Response.Status.NOT_FOUND)
+                .check(() -> {
+                    started.countDown();
+                    throw sneaky(failure);
+                }, "b", Response.Status.NOT_FOUND);
+
+        var thrown = assertThrows(Throwable.class, () -> assertTimeoutPreemptively(TIMEOUT, pipeline::run));
+        assertSame(failure, thrown);
+    }
+
+    private static boolean await(CountDownLatch latch) {
+        try {
+            return latch.await(TIMEOUT.toMillis(), TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    private static RuntimeException sneaky(Throwable failure) {
+        if (failure instanceof Error error)
+            throw error;
+        return (RuntimeException) failure;
+    }
+}
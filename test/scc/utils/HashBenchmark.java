@@ -0,0 +1,81 @@
+package scc.utils;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.security.MessageDigest;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the throughput of Hash with the digest shared behind a lock that it replaced, with one thread
+ * and with as many threads as cores. A 64 byte value stands for a password, a 64 KB one for an upload.
+ * <p>
+ * Run the main method, or org.openjdk.jmh.Main HashBenchmark with the test classpath.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class HashBenchmark {
+
+    @Param({"64", "65536"})
+    public int size;
+
+    private byte[] data;
+
+    @Setup
+    public void setup() {
+        data = new byte[size];
+        ThreadLocalRandom.current().nextBytes(data);
+    }
+
+    @Benchmark
+    @Threads(1)
+    public String sharedDigestOneThread() {
+        return SharedDigest.of(data);
+    }
+
+    @Benchmark
+    @Threads(1)
+    public String pooledOneThread() {
+        return Hash.of(data);
+    }
+
+    @Benchmark
+    @Threads(Threads.MAX)
+    public String sharedDigestAllCores() {
+        return SharedDigest.of(data);
+    }
+
+    @Benchmark
+    @Threads(Threads.MAX)
+    public String pooledAllCores() {
+        return Hash.of(data);
+    }
+
+    /**
+     * The previous Hash: one digest for the whole application, behind the class lock
+     */
+    private static class SharedDigest {
+        private static final MessageDigest md = Hash.newDigest();
+
+        static synchronized byte[] digest(byte[] data) {
+            md.reset();
+            md.update(data);
+            return md.digest();
+        }
+
+        static String of(byte[] data) {
+            return Hash.toHex(digest(data));
+        }
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(HashBenchmark.class.getSimpleName()).build()).run();
+    }
+}